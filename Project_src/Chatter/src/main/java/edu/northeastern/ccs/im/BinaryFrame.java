@@ -0,0 +1,163 @@
+package edu.northeastern.ccs.im;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary framing (version 2 of the wire protocol). A frame is:
+ * <ul>
+ * <li>one type byte: the high bit set, then the type code of the message (its
+ * position in {@link #HANDLES});</li>
+ * <li>one flags byte: bits 0 to 2 say whether the sender, receiver and text are
+ * present; the other bits are reserved and ignored;</li>
+ * <li>for each field present, its length in bytes as an unsigned varint (seven
+ * bits per byte, least significant group first) followed by its UTF-8 bytes.</li>
+ * </ul>
+ * Absent fields are null; nothing is sent for them. Because the type byte always
+ * has its high bit set, it can never be mistaken for the first letter of a text
+ * frame.
+ * <p>
+ * We ask for this format by logging in with {@link #VERSION} as the text of our
+ * HLO message. A server which understands it answers with an HLO message
+ * carrying the same text, after which both sides send binary frames. Servers
+ * which do not understand it ignore the text and keep talking in text frames.
+ */
+public final class BinaryFrame {
+
+	/**
+	 * Text of the HLO message with which the binary format is requested and
+	 * acknowledged.
+	 */
+	public static final String VERSION = "v2";
+
+	/** Bit set in the type byte of every binary frame. */
+	private static final int TYPE_MARKER = 0x80;
+
+	/** Number of fields in every frame. */
+	private static final int FIELD_COUNT = 3;
+
+	/**
+	 * Handles of the message types, indexed by their type code. Codes are part of
+	 * the protocol and must match the server's.
+	 */
+	private static final String[] HANDLES = {
+			"HLO", "HLP", "ACK", "NAK", "BYE", "BCT", "DIR", "GRP", "RET", "UPD", "DEL", "JIN",
+			"LVE", "WTU", "WTG", "APR", "RJT", "SIN", "SUP", "RLE", "RCL", "PCL", "LOG",
+			"RFL"
+	};
+
+	private BinaryFrame() {
+		// Only static helpers.
+	}
+
+	/**
+	 * Return true if the given byte starts a binary frame.
+	 *
+	 * @param first
+	 *            First byte of a frame.
+	 * @return True for a binary frame; false for a text frame.
+	 */
+	static boolean isBinary(byte first) {
+		return (first & TYPE_MARKER) != 0;
+	}
+
+	/**
+	 * Encode a message as a binary frame.
+	 *
+	 * @param msg
+	 *            Message to be encoded.
+	 * @return Buffer, ready to be read, holding the whole frame.
+	 */
+	static ByteBuffer encode(Message msg) {
+		byte[][] fields = { utf8(msg.getSender()), utf8(msg.getReceiver()), utf8(msg.getText()) };
+		int size = 2;
+		int flags = 0;
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			if (fields[i] != null) {
+				flags |= 1 << i;
+				size += varintSize(fields[i].length) + fields[i].length;
+			}
+		}
+		ByteBuffer frame = ByteBuffer.allocate(size);
+		frame.put((byte) (TYPE_MARKER | code(msg.getType().toString())));
+		frame.put((byte) flags);
+		for (byte[] field : fields) {
+			if (field != null) {
+				putVarint(frame, field.length);
+				frame.put(field);
+			}
+		}
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Decode the binary frame starting at the buffer's position, moving the
+	 * position past it.
+	 *
+	 * @param in
+	 *            Buffer, ready to be read, holding bytes from the network.
+	 * @return The message sent, or null if its type is unknown.
+	 * @throws BufferUnderflowException
+	 *             Exception thrown when the buffer holds only part of the frame;
+	 *             the position is then undefined.
+	 */
+	static Message decode(ByteBuffer in) {
+		int code = in.get() & ~TYPE_MARKER & 0xFF;
+		int flags = in.get();
+		String[] fields = new String[FIELD_COUNT];
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			if ((flags & (1 << i)) != 0) {
+				byte[] bytes = new byte[getVarint(in)];
+				in.get(bytes);
+				fields[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+		}
+		if (code >= HANDLES.length) {
+			return null;
+		}
+		return Message.makeMessage(HANDLES[code], fields[0], fields[1], fields[2]);
+	}
+
+	private static int code(String handle) {
+		for (int i = 0; i < HANDLES.length; i++) {
+			if (HANDLES[i].equals(handle)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No type code for " + handle);
+	}
+
+	private static byte[] utf8(String value) {
+		return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0) {
+			size++;
+		}
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
@@ -311,6 +311,10 @@ public class IMConnection {
             Message lgMessage = Message.makeLoggerMessage(userName);
             socketConnection.print(lgMessage);
         }
+        else if (message.equals("RELOAD_FILTER")) {
+            Message rfMessage = Message.makeReloadFilterMessage(userName);
+            socketConnection.print(rfMessage);
+        }
         else if (message.contains("HELP")){
             Message hpMessage = Message.makeHelpMessage(userName);
             socketConnection.print(hpMessage);
@@ -357,8 +361,8 @@ public class IMConnection {
      * @return True if the connection was successfully made; false otherwise.
      */
     private boolean login() {
-        // Now log in using this name.
-        Message loginMessage = Message.makeLoginMessage(userName);
+        // Now log in using this name, asking for the binary protocol.
+        Message loginMessage = Message.makeLoginMessage(userName, BinaryFrame.VERSION);
         try {
             socketConnection = new SocketNB(hostName, portNum);
             socketConnection.startIMConnection();
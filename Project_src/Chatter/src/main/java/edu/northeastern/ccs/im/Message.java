@@ -101,7 +101,11 @@ public class Message {
 
         PCONTROL("PCL"),
 
-        LOGGER("LOG");
+        LOGGER("LOG"),
+        /**
+         * Admin request to reload the bad word dictionary
+         */
+        RELOAD_FILTER("RFL");
 
 
         /**
@@ -232,6 +236,10 @@ public class Message {
         return new Message(MessageType.LOGGER, myName, null, null);
     }
 
+    public static Message makeReloadFilterMessage(String myName) {
+        return new Message(MessageType.RELOAD_FILTER, myName, null, null);
+    }
+
     public static Message makePControlMessage(String myName, String directTo) {
         return new Message(MessageType.PCONTROL, myName, directTo, null);
     }
@@ -378,7 +386,7 @@ public class Message {
         if (handle.compareTo(MessageType.QUIT.toString()) == 0) {
             result = makeQuitMessage(srcName);
         } else if (handle.compareTo(MessageType.HELLO.toString()) == 0) {
-            result = makeLoginMessage(srcName);
+            result = makeLoginMessage(srcName, text);
         } else if (handle.compareTo(MessageType.BROADCAST.toString()) == 0) {
             result = makeBroadcastMessage(srcName, text);
         } else if (handle.compareTo(MessageType.ACKNOWLEDGE.toString()) == 0) {
@@ -413,6 +421,8 @@ public class Message {
             result = makeRecallMessage(srcName, text);
         } else if (handle.compareTo(MessageType.LOGGER.toString()) == 0) {
             result = makeLoggerMessage(srcName);
+        } else if (handle.compareTo(MessageType.RELOAD_FILTER.toString()) == 0) {
+            result = makeReloadFilterMessage(srcName);
         } else if (handle.compareTo(MessageType.PCONTROL.toString()) == 0) {
             result = makePControlMessage(srcName, dstName);
         } else if (handle.compareTo(MessageType.SIGNIN.toString()) == 0) {
@@ -456,6 +466,18 @@ public class Message {
         return new Message(MessageType.HELLO, myName);
     }
 
+    /**
+     * Create a new login message which also names the version of the protocol
+     * we would like to use (see {@link BinaryFrame#VERSION}).
+     *
+     * @param myName   Name of the user who is logging in.
+     * @param protocol Protocol version requested or acknowledged (may be null)
+     * @return Instance of Message that can be sent to the server to try and login.
+     */
+    public static Message makeLoginMessage(String myName, String protocol) {
+        return new Message(MessageType.HELLO, myName, null, protocol);
+    }
+
     /**
      * Return the type of this message.
      *
@@ -592,6 +614,10 @@ public class Message {
         return (msgType == MessageType.LOGGER);
     }
 
+    public boolean isReloadFilterMessage() {
+        return (msgType == MessageType.RELOAD_FILTER);
+    }
+
     public boolean isPControlMessage() {
         return (msgType == MessageType.PCONTROL);
     }
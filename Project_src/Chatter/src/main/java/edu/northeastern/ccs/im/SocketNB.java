@@ -2,13 +2,13 @@ package edu.northeastern.ccs.im;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /**
@@ -44,9 +44,10 @@ public final class SocketNB {
 
 	private static final int HANDLE_LENGTH = 3;
 
-	private static final int MIN_MESSAGE_LENGTH = 7;
+	/** Length of the shortest frame: a binary frame without any field. */
+	private static final int MIN_BINARY_LENGTH = 2;
 
-	private static final String CHARSET_NAME = "us-ascii";
+	private static final Charset CHARSET = StandardCharsets.US_ASCII;
 
 	private static final int MAX_WAIT_DELAY = 100;
 
@@ -56,6 +57,9 @@ public final class SocketNB {
 
 	private ByteBuffer buff;
 
+	/** Whether the server accepted to exchange binary frames with us. */
+	private volatile boolean binary;
+
 	/**
 	 * Creates a new network connection that connects to the specified port
 	 * number on the named host.
@@ -91,45 +95,55 @@ public final class SocketNB {
 	}
 
 	/**
-	 * Read in a new argument from the IM server.
+	 * Read in a new argument of a text frame from the IM server: a space, the
+	 * argument's length, another space and then the argument itself.
 	 *
-	 * @param charBuffer
-	 *            Buffer holding text from over the network.
+	 * @param buffer
+	 *            Buffer holding bytes from over the network.
 	 * @return String holding the next argument sent over the network.
 	 */
-	private String readArgument(CharBuffer charBuffer) {
-		// Compute the current position in the buffer
-		int pos = charBuffer.position();
-		// Compute the length of this argument
+	private String readArgument(ByteBuffer buffer) {
+		// Skip past the leading space
+		buffer.get();
+		// Now read in the length of the argument
 		int length = 0;
-		// Track the number of locations visited.
-		int seen = 0;
-		// Assert that this character is a digit
-		assert Character.isDigit(charBuffer.get(pos));
-		// Now read in the length of the first argument
-		while (Character.isDigit(charBuffer.get(pos))) {
+		byte b = buffer.get();
+		while (Character.isDigit(b)) {
 			// My quick-and-dirty numeric converter
-			length = length * DECIMAL_RADIX;
-			length += Character.digit(charBuffer.get(pos), DECIMAL_RADIX);
-			// Move to the next character
-			pos += 1;
-			seen += 1;
+			length = length * DECIMAL_RADIX + Character.digit(b, DECIMAL_RADIX);
+			b = buffer.get();
 		}
-		seen += 1;
 		if (length == 0) {
-			// Update our position
-			charBuffer.position(pos);
 			// If the length is 0, this argument is null
 			return null;
 		}
-		String retVal = charBuffer.subSequence(seen, length + seen).toString();
-		charBuffer.position(pos + length);
-		return retVal;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, CHARSET);
+	}
+
+	/**
+	 * Read in a text frame from the IM server, e.g. <code>BCT 3 bob 2 -- 5 hello</code>.
+	 *
+	 * @param buffer
+	 *            Buffer whose position is at the start of the frame.
+	 * @return The message sent, or null if its type is unknown.
+	 */
+	private Message readTextFrame(ByteBuffer buffer) {
+		byte[] handle = new byte[HANDLE_LENGTH];
+		buffer.get(handle);
+		// Read the first argument containing the sender's name
+		final String sender = readArgument(buffer);
+		final String receiver = readArgument(buffer);
+		// Read in the third argument containing the message
+		final String message = readArgument(buffer);
+		return Message.makeMessage(new String(handle, CHARSET), sender, receiver, message);
 	}
 
 	/**
 	 * This method will block while it waits to enqueue 1 (or more) messages
-	 * sent from the server.
+	 * sent from the server. Text and binary frames are both understood, since
+	 * the server only switches to binary frames once we asked for them.
 	 *
 	 * @param messages
 	 *            Queue to which the messages should be added.
@@ -147,37 +161,28 @@ public final class SocketNB {
 			} else {
 				return;
 			}
-			// Create a decoder which will convert our traffic to something
-			// useful
-			Charset charset = Charset.forName(CHARSET_NAME);
-			CharsetDecoder decoder = charset.newDecoder();
-			// Convert the buffer to a format that we can actually use.
-			CharBuffer charBuffer = decoder.decode(buff);
-			// Start scanning the buffer for any and all messages.
-			int start = 0;
-			// Scan through the entire buffer; check that we have the minimum
-			// message size
-			while ((start + MIN_MESSAGE_LENGTH) <= charBuffer.limit()) {
-				// If this is not the first message, skip extra space.
-				if (start != 0) {
-					charBuffer.position(start);
+			// Scan through the entire buffer for any and all messages.
+			while (buff.remaining() >= MIN_BINARY_LENGTH) {
+				int start = buff.position();
+				Message newMsg;
+				try {
+					if (BinaryFrame.isBinary(buff.get(start))) {
+						newMsg = BinaryFrame.decode(buff);
+					} else {
+						newMsg = readTextFrame(buff);
+					}
+				} catch (BufferUnderflowException e) {
+					// Only part of this message has arrived; wait for the rest.
+					buff.position(start);
+					break;
+				}
+				if (newMsg == null) {
+					continue;
+				}
+				// The server acknowledges the binary protocol with the same text we sent.
+				if (newMsg.isInitialization() && BinaryFrame.VERSION.equals(newMsg.getText())) {
+					binary = true;
 				}
-				// First read in the handle
-				final String handle = charBuffer.subSequence(0, HANDLE_LENGTH).toString();
-				// Skip past the handle
-				charBuffer.position(start + HANDLE_LENGTH + 1);
-				// Read the first argument containing the sender's name
-				final String sender = readArgument(charBuffer);
-				// Skip past the leading space
-				charBuffer.position(charBuffer.position() + 2);
-				final String receiver = readArgument(charBuffer);
-				charBuffer.position(charBuffer.position() + 2);
-				// Read in the second argument containing the message
-				final String message = readArgument(charBuffer);
-				// Add this message into our queue
-
-				// Add this message into our queue
-				Message newMsg = Message.makeMessage(handle, sender, receiver, message);
 				// Check if this message is closing our connection
 				if (newMsg.getType() == edu.northeastern.ccs.im.Message.MessageType.QUIT) {
 					quitter = true;
@@ -185,21 +190,13 @@ public final class SocketNB {
 
 				// Now pass this message on to the system.
 				messages.add(newMsg);
-
-				// And move the position to the start of the next character
-				start = charBuffer.position() + 1;
 			}
-			// Check if we did any work.
-			if (start != 0) {
-				// Move any read messages out of the buffer so that we can add
-				// to the end.
-				buff.position(start);
-				// Move all of the remaining data to the start of the buffer.
-				buff.compact();
-				// Close down the connection once we quit
-				if (quitter) {
-					close();
-				}
+			// Move all of the remaining data to the start of the buffer so that we
+			// can add to the end.
+			buff.compact();
+			// Close down the connection once we quit
+			if (quitter) {
+				close();
 			}
 		} catch (IOException ioe) {
 			// For the moment, we will cover up this exception and hope it never
@@ -229,12 +226,10 @@ public final class SocketNB {
 		if (!isConnected()) {
 			throw new IllegalOperationException("Cannot send a message when we are not connected!");
 		}
-		String str = msg.toString();
-		ByteBuffer wrapper = ByteBuffer.wrap(str.getBytes());
-		int bytesWritten = 0;
-		while (bytesWritten != str.length()) {
+		ByteBuffer wrapper = binary ? BinaryFrame.encode(msg) : ByteBuffer.wrap(msg.toString().getBytes());
+		while (wrapper.hasRemaining()) {
 			try {
-				bytesWritten += channel.write(wrapper);
+				channel.write(wrapper);
 			} catch (IOException e) {
 				// May want to do something here, but now will simply cover the
 				// issue up
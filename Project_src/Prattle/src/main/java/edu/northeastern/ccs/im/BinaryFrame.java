@@ -0,0 +1,141 @@
+package edu.northeastern.ccs.im;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary framing (version 2 of the wire protocol). A frame is:
+ * <ul>
+ * <li>one type byte: the high bit set, then the type code of the message (its
+ * position in {@link #HANDLES});</li>
+ * <li>one flags byte: bits 0 to 2 say whether the sender, receiver and text are
+ * present; the other bits are reserved and ignored;</li>
+ * <li>for each field present, its length in bytes as an unsigned varint (seven
+ * bits per byte, least significant group first) followed by its UTF-8 bytes.</li>
+ * </ul>
+ * Absent fields are null; nothing is sent for them. Because the type byte always
+ * has its high bit set, it can never be mistaken for the first letter of a text
+ * frame, so a decoder can accept either format at every frame boundary.
+ * <p>
+ * Clients ask for this format by sending a text HLO message whose text is
+ * {@link #VERSION}. A server which understands it answers with an HLO message
+ * carrying the same text, sent in the binary format, and from then on sends
+ * that client nothing but binary frames. Legacy clients never ask, and so are
+ * only ever sent text frames.
+ */
+public final class BinaryFrame {
+
+    /**
+     * Text of the HLO message with which the binary format is requested and
+     * acknowledged.
+     */
+    public static final String VERSION = "v2";
+
+    /**
+     * Bit set in the type byte of every binary frame.
+     */
+    static final int TYPE_MARKER = 0x80;
+
+    /**
+     * Number of fields in every frame.
+     */
+    static final int FIELD_COUNT = 3;
+
+    /**
+     * Handles of the message types, indexed by their type code. Codes are part of
+     * the protocol: new types must only ever be added at the end.
+     */
+    private static final String[] HANDLES = {
+            "HLO", "HLP", "ACK", "NAK", "BYE", "BCT", "DIR", "GRP", "RET", "UPD", "DEL", "JIN",
+            "LVE", "WTU", "WTG", "APR", "RJT", "SIN", "SUP", "RLE", "RCL", "PCL", "LOG",
+            "RFL"
+    };
+
+    private BinaryFrame() {
+        // Only static helpers.
+    }
+
+    /**
+     * Return true if the given byte starts a binary frame.
+     *
+     * @param first First byte of a frame.
+     * @return True for a binary frame; false for a text frame.
+     */
+    static boolean isBinary(byte first) {
+        return (first & TYPE_MARKER) != 0;
+    }
+
+    /**
+     * Return the handle of the message type with the given code.
+     *
+     * @param code Type code taken from a type byte.
+     * @return The type's three letter handle, or null if the code is unknown.
+     */
+    static String handle(int code) {
+        return code < HANDLES.length ? HANDLES[code] : null;
+    }
+
+    /**
+     * Return the type code of the message type with the given handle.
+     *
+     * @param handle Three letter handle of the message type.
+     * @return The type's code.
+     */
+    static int code(String handle) {
+        for (int i = 0; i < HANDLES.length; i++) {
+            if (HANDLES[i].equals(handle)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No type code for " + handle);
+    }
+
+    /**
+     * Encode a message as a binary frame.
+     *
+     * @param msg Message to be encoded.
+     * @return Buffer, ready to be read, holding the whole frame.
+     */
+    static ByteBuffer encode(Message msg) {
+        byte[][] fields = {utf8(msg.getSender()), utf8(msg.getReceiver()), utf8(msg.getText())};
+        int size = 2;
+        int flags = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            if (fields[i] != null) {
+                flags |= 1 << i;
+                size += varintSize(fields[i].length) + fields[i].length;
+            }
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.put((byte) (TYPE_MARKER | code(msg.getType().toString())));
+        frame.put((byte) flags);
+        for (byte[] field : fields) {
+            if (field != null) {
+                putVarint(frame, field.length);
+                frame.put(field);
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
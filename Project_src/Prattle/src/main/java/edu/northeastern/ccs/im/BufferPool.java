@@ -0,0 +1,200 @@
+package edu.northeastern.ccs.im;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of direct buffers which connections lease only for the duration
+ * of a single read. Idle connections therefore hold no read buffer at all, and
+ * reading into a direct buffer spares the copy the JDK makes for heap buffers.
+ * <p>
+ * Up to a fixed number of returned buffers are kept for reuse; when more are
+ * leased at once, extra buffers are allocated and simply dropped on release.
+ */
+public class BufferPool {
+
+    /**
+     * Size of every buffer in the pool.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest number of idle buffers kept for reuse.
+     */
+    private static final int MAX_IDLE_BUFFERS = 64;
+
+    /**
+     * Pool shared by all of the connections.
+     */
+    private static final BufferPool INSTANCE = new BufferPool(BUFFER_SIZE, MAX_IDLE_BUFFERS);
+
+    /**
+     * Capacity of the buffers handed out by this pool.
+     */
+    private final int bufferSize;
+
+    /**
+     * Largest number of idle buffers this pool keeps.
+     */
+    private final int maxIdle;
+
+    /**
+     * Buffers waiting to be leased.
+     */
+    private final Queue<ByteBuffer> idle;
+
+    /**
+     * Number of buffers in the idle queue.
+     */
+    private final AtomicInteger idleCount;
+
+    /**
+     * Number of buffers currently leased.
+     */
+    private final AtomicInteger leased;
+
+    /**
+     * Largest number of buffers ever leased at once.
+     */
+    private final AtomicInteger peakLeased;
+
+    /**
+     * Number of buffers this pool has had to allocate.
+     */
+    private final AtomicLong allocated;
+
+    /**
+     * Number of leases handed out.
+     */
+    private final AtomicLong leases;
+
+    /**
+     * Create a new, empty pool.
+     *
+     * @param bufferSize Capacity of each buffer.
+     * @param maxIdle    Largest number of idle buffers to keep.
+     */
+    BufferPool(int bufferSize, int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+        idle = new ConcurrentLinkedQueue<>();
+        idleCount = new AtomicInteger();
+        leased = new AtomicInteger();
+        peakLeased = new AtomicInteger();
+        allocated = new AtomicLong();
+        leases = new AtomicLong();
+    }
+
+    /**
+     * Return the pool shared by all of the connections.
+     *
+     * @return The shared buffer pool.
+     */
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Lease an empty buffer. It must be handed back with release once the read is
+     * done.
+     *
+     * @return A cleared direct buffer.
+     */
+    public ByteBuffer lease() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer != null) {
+            idleCount.decrementAndGet();
+        } else {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            allocated.incrementAndGet();
+        }
+        leases.incrementAndGet();
+        int now = leased.incrementAndGet();
+        peakLeased.accumulateAndGet(now, Math::max);
+        return buffer;
+    }
+
+    /**
+     * Hand back a buffer obtained from lease. The caller must not use it again.
+     *
+     * @param buffer Buffer being returned.
+     */
+    public void release(ByteBuffer buffer) {
+        leased.decrementAndGet();
+        buffer.clear();
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.add(buffer);
+        } else {
+            // Keep no more than maxIdle buffers; this one is left to the collector.
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Return the capacity of the buffers handed out by this pool.
+     *
+     * @return Size of each buffer in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Return the number of buffers currently leased.
+     *
+     * @return Number of buffers in use.
+     */
+    public int getLeased() {
+        return leased.get();
+    }
+
+    /**
+     * Return the largest number of buffers ever leased at once.
+     *
+     * @return Peak number of buffers in use.
+     */
+    public int getPeakLeased() {
+        return peakLeased.get();
+    }
+
+    /**
+     * Return the number of idle buffers waiting to be leased.
+     *
+     * @return Number of pooled buffers not in use.
+     */
+    public int getIdle() {
+        return idleCount.get();
+    }
+
+    /**
+     * Return the number of buffers this pool has had to allocate.
+     *
+     * @return Number of allocations.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * Return the number of leases handed out.
+     *
+     * @return Number of leases.
+     */
+    public long getLeases() {
+        return leases.get();
+    }
+
+    /**
+     * Return a summary of the pool's occupancy.
+     *
+     * @return String describing the pool.
+     */
+    @Override
+    public String toString() {
+        return "BufferPool[leased=" + getLeased() + ", peak=" + getPeakLeased() + ", idle=" + getIdle()
+                + ", allocated=" + getAllocated() + ", leases=" + getLeases() + "]";
+    }
+}
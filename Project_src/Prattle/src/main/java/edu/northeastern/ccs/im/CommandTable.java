@@ -0,0 +1,88 @@
+package edu.northeastern.ccs.im;
+
+/**
+ * Table of values (factories, handlers, ...) keyed by the three letter handle
+ * of a message type. Handles are made of upper case letters, so each one maps
+ * to its own slot of an array: a lookup costs three subtractions and no string
+ * comparison, however many commands are registered.
+ *
+ * @param <T> Type of the values held in the table.
+ */
+public final class CommandTable<T> {
+
+    private static final int HANDLE_LENGTH = 3;
+
+    private static final int LETTERS = 26;
+
+    /**
+     * Number of possible handles.
+     */
+    static final int SIZE = LETTERS * LETTERS * LETTERS;
+
+    /**
+     * Value registered for each handle, indexed as in index().
+     */
+    private final Object[] entries = new Object[SIZE];
+
+    /**
+     * Register the value used for messages with the given handle, replacing any
+     * value registered before.
+     *
+     * @param handle Three upper case letters naming a message type.
+     * @param value  Value for that type.
+     * @throws IllegalArgumentException Exception thrown if handle is not three
+     *                                  upper case letters.
+     */
+    public void register(String handle, T value) {
+        int index = index(handle);
+        if (index < 0) {
+            throw new IllegalArgumentException("Not a message handle: " + handle);
+        }
+        entries[index] = value;
+    }
+
+    /**
+     * Return the value registered for the given handle.
+     *
+     * @param handle Handle read from the network (may be anything).
+     * @return The value registered for the handle, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(String handle) {
+        int index = index(handle);
+        return index < 0 ? null : (T) entries[index];
+    }
+
+    /**
+     * Return the value registered for the type of the given message.
+     *
+     * @param msg Message whose type we look up.
+     * @return The value registered for the message's type, or null if there is
+     * none.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(Message msg) {
+        return (T) entries[msg.getType().getIndex()];
+    }
+
+    /**
+     * Return the slot of the given handle.
+     *
+     * @param handle Candidate handle (may be null).
+     * @return The handle's slot, or -1 if it is not three upper case letters.
+     */
+    static int index(String handle) {
+        if (handle == null || handle.length() != HANDLE_LENGTH) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < HANDLE_LENGTH; i++) {
+            int letter = handle.charAt(i) - 'A';
+            if (letter < 0 || letter >= LETTERS) {
+                return -1;
+            }
+            index = index * LETTERS + letter;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,403 @@
+package edu.northeastern.ccs.im;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Incremental decoder for the frames sent by IM clients. A frame is a three
+ * letter handle followed by three length-prefixed fields, e.g.
+ * <code>BCT 3 bob 2 -- 5 hello</code>, and frames follow each other without any
+ * separator. Frames in the binary format (see {@link BinaryFrame}) are accepted
+ * at any frame boundary as well; their first byte tells the two apart.
+ * <p>
+ * The decoder works directly on the bytes read from the network and remembers
+ * where it stopped, so a frame may be split across any number of reads. The
+ * only objects created per frame are the strings for its three fields and the
+ * resulting Message.
+ * <p>
+ * Field lengths come from the client, so they are checked against a limit (see
+ * {@link #MAX_FIELD_PROPERTY}) and a field's storage only grows as its bytes
+ * arrive. A frame breaking the limit makes the decoder malformed: it decodes
+ * nothing more, and the connection should be closed.
+ */
+class FrameDecoder {
+
+    /**
+     * System property setting the largest length, in bytes, of a frame's field.
+     */
+    static final String MAX_FIELD_PROPERTY = "prattle.frame.max";
+
+    /* Largest length of a field unless the property says otherwise. */
+    static final int DEFAULT_MAX_FIELD = 1024 * 1024;
+
+    private static final int HANDLE_LENGTH = 3;
+
+    private static final int FIELD_COUNT = BinaryFrame.FIELD_COUNT;
+
+    /* Shift of the last byte of a binary field's length, which takes five bytes at most. */
+    private static final int MAX_VARINT_SHIFT = 28;
+
+    private static final int INITIAL_FIELD_CAPACITY = 64;
+
+    /* Field storage larger than this is released once the field is decoded. */
+    private static final int MAX_RETAINED_FIELD_CAPACITY = 4 * 1024;
+
+    /* Decoder states. */
+    private static final int READ_HANDLE = 0;
+    private static final int SKIP_SEPARATOR = 1;
+    private static final int READ_LENGTH = 2;
+    private static final int READ_FIELD = 3;
+    private static final int READ_FLAGS = 4;
+    private static final int READ_VARINT = 5;
+
+    /**
+     * Handles of every known message type, indexed by their packed bytes, so that
+     * decoding a handle does not need to create a String.
+     */
+    private static final Map<Integer, String> HANDLES = new HashMap<>();
+
+    static {
+        for (Message.MessageType type : Message.MessageType.values()) {
+            String tla = type.toString();
+            HANDLES.put(pack(tla.charAt(0), tla.charAt(1), tla.charAt(2)), tla);
+        }
+    }
+
+    /**
+     * Current state of the decoder (see READ_* and SKIP_*).
+     */
+    private int state;
+
+    /**
+     * Bytes of the handle read so far, packed into an int.
+     */
+    private int handleBytes;
+
+    /**
+     * Number of handle bytes read so far.
+     */
+    private int handleRead;
+
+    /**
+     * Handle of the frame being decoded.
+     */
+    private String handle;
+
+    /**
+     * Index of the field being decoded.
+     */
+    private int field;
+
+    /**
+     * Fields of the frame decoded so far.
+     */
+    private final String[] fields;
+
+    /**
+     * Whether the frame being decoded is a binary frame.
+     */
+    private boolean binary;
+
+    /**
+     * Flags of the binary frame being decoded, saying which fields are present.
+     */
+    private int flags;
+
+    /**
+     * Number of bits of a binary field's length read so far.
+     */
+    private int shift;
+
+    /**
+     * Length of the field being decoded.
+     */
+    private int length;
+
+    /**
+     * Whether at least one digit of the current length has been read.
+     */
+    private boolean lengthStarted;
+
+    /**
+     * Bytes of the current field read so far.
+     */
+    private byte[] fieldBytes;
+
+    /**
+     * Number of bytes of the current field read so far.
+     */
+    private int fieldRead;
+
+    /**
+     * Largest length of a field.
+     */
+    private final int maxField;
+
+    /**
+     * Whether a frame broke the limits; nothing more is decoded once it is set.
+     */
+    private boolean malformed;
+
+    /**
+     * Create a new decoder waiting for the start of a frame, with the field limit
+     * set through the system property.
+     */
+    FrameDecoder() {
+        this(Integer.getInteger(MAX_FIELD_PROPERTY, DEFAULT_MAX_FIELD));
+    }
+
+    /**
+     * Create a new decoder waiting for the start of a frame.
+     *
+     * @param maxField Largest length, in bytes, of a frame's field.
+     */
+    FrameDecoder(int maxField) {
+        this.maxField = Math.max(0, maxField);
+        fields = new String[FIELD_COUNT];
+        fieldBytes = new byte[INITIAL_FIELD_CAPACITY];
+        state = READ_HANDLE;
+    }
+
+    /**
+     * Pack three bytes into an int.
+     */
+    private static int pack(int first, int second, int third) {
+        return ((first & 0xFF) << 16) | ((second & 0xFF) << 8) | (third & 0xFF);
+    }
+
+    /**
+     * Consume every remaining byte in the buffer, adding each frame completed by
+     * these bytes to the queue. Bytes of an incomplete frame are remembered until
+     * the next call.
+     *
+     * @param in       Buffer (ready to be read) holding bytes from the network.
+     * @param messages Queue to which completed messages are added.
+     * @return Number of messages added to the queue.
+     */
+    int decode(ByteBuffer in, Queue<Message> messages) {
+        int decoded = 0;
+        // An empty field is complete as soon as its length has been read.
+        while (!malformed && (in.hasRemaining() || (state == READ_FIELD && fieldRead == length))) {
+            switch (state) {
+                case READ_HANDLE:
+                    readHandle(in);
+                    break;
+                case READ_FLAGS:
+                    flags = in.get();
+                    if (nextBinaryField()) {
+                        decoded += complete(messages);
+                    }
+                    break;
+                case READ_VARINT:
+                    readVarint(in);
+                    break;
+                case SKIP_SEPARATOR:
+                    in.get();
+                    state = READ_LENGTH;
+                    break;
+                case READ_LENGTH:
+                    readLength(in);
+                    break;
+                default:
+                    if (readField(in)) {
+                        decoded += complete(messages);
+                    }
+                    break;
+            }
+        }
+        if (malformed) {
+            // The rest of the input cannot be framed.
+            in.position(in.limit());
+        }
+        return decoded;
+    }
+
+    /**
+     * Return true if a frame broke the limits, after which nothing more is
+     * decoded and the connection should be closed.
+     *
+     * @return True if the input is malformed.
+     */
+    boolean isMalformed() {
+        return malformed;
+    }
+
+    /**
+     * Give up on the input: the frame being decoded cannot be trusted.
+     */
+    private void reject() {
+        malformed = true;
+        fieldBytes = new byte[INITIAL_FIELD_CAPACITY];
+    }
+
+    /**
+     * Return true if the decoder is part way through a frame.
+     *
+     * @return True if bytes of an incomplete frame are being held.
+     */
+    boolean hasPartialFrame() {
+        return state != READ_HANDLE || handleRead != 0;
+    }
+
+    /**
+     * Queue the message made of the frame just decoded, and get ready for the next
+     * frame.
+     *
+     * @return Number of messages queued.
+     */
+    private int complete(Queue<Message> messages) {
+        state = READ_HANDLE;
+        // Frames of an unknown type are skipped.
+        Message msg = handle == null ? null : Message.makeMessage(handle, fields[0], fields[1], fields[2]);
+        if (msg == null) {
+            return 0;
+        }
+        messages.add(msg);
+        return 1;
+    }
+
+    /**
+     * Read the bytes of the handle, or the type byte of a binary frame.
+     */
+    private void readHandle(ByteBuffer in) {
+        if (handleRead == 0 && BinaryFrame.isBinary(in.get(in.position()))) {
+            handle = BinaryFrame.handle(in.get() & ~BinaryFrame.TYPE_MARKER & 0xFF);
+            binary = true;
+            field = 0;
+            state = READ_FLAGS;
+            return;
+        }
+        handleBytes = (handleBytes << 8) | (in.get() & 0xFF);
+        handleRead++;
+        if (handleRead == HANDLE_LENGTH) {
+            handle = HANDLES.get(handleBytes);
+            if (handle == null) {
+                byte[] bytes = {(byte) (handleBytes >> 16), (byte) (handleBytes >> 8), (byte) handleBytes};
+                handle = new String(bytes, StandardCharsets.US_ASCII);
+            }
+            handleBytes = 0;
+            handleRead = 0;
+            binary = false;
+            field = 0;
+            state = SKIP_SEPARATOR;
+        }
+    }
+
+    /**
+     * Read the digits of a field's length, up to and including the space which
+     * follows them.
+     */
+    private void readLength(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b >= '0' && b <= '9') {
+                if (length > (maxField - (b - '0')) / 10) {
+                    reject();
+                    return;
+                }
+                length = length * 10 + (b - '0');
+                lengthStarted = true;
+            } else if (lengthStarted || b != ' ') {
+                startField();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the bytes of a binary field's length, up to and including its last
+     * byte.
+     */
+    private void readVarint(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            // At most five bytes, and never more than the largest field.
+            long value = length | ((long) (b & 0x7F) << shift);
+            if (shift > MAX_VARINT_SHIFT || value > maxField) {
+                shift = 0;
+                reject();
+                return;
+            }
+            length = (int) value;
+            shift += 7;
+            if ((b & 0x80) == 0) {
+                shift = 0;
+                startField();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skip the fields absent from a binary frame, which are null, and get ready
+     * to read the next field present.
+     *
+     * @return True if no field is left, which completes the frame.
+     */
+    private boolean nextBinaryField() {
+        while (field < FIELD_COUNT && (flags & (1 << field)) == 0) {
+            fields[field++] = null;
+        }
+        if (field == FIELD_COUNT) {
+            return true;
+        }
+        length = 0;
+        state = READ_VARINT;
+        return false;
+    }
+
+    /**
+     * Get ready to read the field whose length has just been read. Its storage
+     * grows as its bytes arrive, so a length alone never allocates anything.
+     */
+    private void startField() {
+        if (length < 0 || length > maxField) {
+            reject();
+            return;
+        }
+        fieldRead = 0;
+        lengthStarted = false;
+        state = READ_FIELD;
+    }
+
+    /**
+     * Read the bytes of the current field.
+     *
+     * @return True if this completed the last field of the frame.
+     */
+    private boolean readField(ByteBuffer in) {
+        int count = Math.min(length - fieldRead, in.remaining());
+        if (fieldBytes.length < fieldRead + count) {
+            fieldBytes = Arrays.copyOf(fieldBytes, Math.min(length, Math.max(fieldRead + count, fieldBytes.length * 2)));
+        }
+        in.get(fieldBytes, fieldRead, count);
+        fieldRead += count;
+        if (fieldRead < length) {
+            return false;
+        }
+        if (binary) {
+            fields[field] = new String(fieldBytes, 0, length, StandardCharsets.UTF_8);
+        } else {
+            // A field of length 0 is null.
+            fields[field] = length == 0 ? null : new String(fieldBytes, 0, length, StandardCharsets.US_ASCII);
+        }
+        if (fieldBytes.length > MAX_RETAINED_FIELD_CAPACITY) {
+            fieldBytes = new byte[INITIAL_FIELD_CAPACITY];
+        }
+        length = 0;
+        field++;
+        if (binary) {
+            return nextBinaryField();
+        }
+        if (field < FIELD_COUNT) {
+            state = SKIP_SEPARATOR;
+            return false;
+        }
+        state = READ_HANDLE;
+        return true;
+    }
+}
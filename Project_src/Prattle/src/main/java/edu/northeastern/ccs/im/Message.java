@@ -1,5 +1,6 @@
 package edu.northeastern.ccs.im;
 
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of this class represents a single transmission by our IM
@@ -21,87 +22,91 @@ public class Message {
         /**
          * Message sent by the user attempting to login using a specified username.
          */
-        HELLO("HLO"),
+        HELLO("HLO", (src, dst, text) -> makeLoginMessage(src, text)),
 
-        HELP("HLP"),
+        HELP("HLP", (src, dst, text) -> makeHelpMessage(src)),
         /**
          * Message sent by the server acknowledging a successful log in.
          */
-        ACKNOWLEDGE("ACK"),
+        ACKNOWLEDGE("ACK", (src, dst, text) -> makeAcknowledgeMessage(src)),
         /**
          * Message sent by the server rejecting a login attempt.
          */
-        NO_ACKNOWLEDGE("NAK"),
+        NO_ACKNOWLEDGE("NAK", (src, dst, text) -> makeNoAcknowledgeMessage()),
         /**
          * Message sent by the user to start the logging out process and sent by the
          * server once the logout process completes.
          */
-        QUIT("BYE"),
+        QUIT("BYE", (src, dst, text) -> makeQuitMessage(src)),
         /**
          * Message whose contents is broadcast to all connected users.
          */
-        BROADCAST("BCT"),
+        BROADCAST("BCT", (src, dst, text) -> makeBroadcastMessage(src, text)),
 
         /**
          * Message whose contents is directed to specific user.
          */
-        DIRECT("DIR"),
+        DIRECT("DIR", Message::makeDirectMessage),
 
         /**
          * Message for groups
          */
-        GROUP("GRP"),
+        GROUP("GRP", Message::makeGroupMessage),
 
         /**
          * Message for retreival operations
          */
-        RETRIEVE("RET"),
+        RETRIEVE("RET", (src, dst, text) -> makeRetrieveMessage(src, text)),
 
         /**
          * Message for updating a user or a group
          */
-        UPDATE("UPD"),
+        UPDATE("UPD", (src, dst, text) -> makeUpdateMessage(src, text)),
 
         /**
          * Message to delete a user or a group
          */
-        DELETE("DEL"),
+        DELETE("DEL", (src, dst, text) -> makeDeleteMessage(src, text)),
 
         /**
          * Message from a user to join a group
          */
-        JOIN("JIN"),
+        JOIN("JIN", (src, dst, text) -> makeJoinMessage(src, text)),
 
         /**
          * Message from the user to leave a group
          */
-        LEAVE("LVE"),
+        LEAVE("LVE", (src, dst, text) -> makeLeaveMessage(src, text)),
         /**
          * Wiretap request
          */
-        WIRETAPU("WTU"),
-        WIRETAPG("WTG"),
+        WIRETAPU("WTU", Message::makeWiretapUserMessage),
+        WIRETAPG("WTG", Message::makeWiretapGroupMessage),
         /**
          * Wiretap approve
          */
-        APPROVE("APR"),
+        APPROVE("APR", Message::makeWiretapApproveMessage),
 
-        REJECT("RJT"),
+        REJECT("RJT", Message::makeWiretapRejectMessage),
 
-        SIGNIN("SIN"),
-        SIGNUP("SUP"),
+        SIGNIN("SIN", (src, dst, text) -> makeSigninMessage(src, text)),
+        SIGNUP("SUP", (src, dst, text) -> makeSignupMessage(src, text)),
         /**
          * Set the role
          */
-        ROLE("RLE"),
+        ROLE("RLE", Message::makeSetRoleMessage),
         /**
          * Message from user to recall last message
          */
-        RECALL("RCL"),
+        RECALL("RCL", (src, dst, text) -> makeRecallMessage(src, text)),
 
-        PCONTROL("PCL"),
+        PCONTROL("PCL", (src, dst, text) -> makePControlMessage(src, dst)),
 
-        LOGGER("LOG");
+        LOGGER("LOG", (src, dst, text) -> makeLoggerMessage(src)),
+        /**
+         * Admin request to reload the bad word dictionary
+         */
+        RELOAD_FILTER("RFL", (src, dst, text) -> makeReloadFilterMessage(src));
 
 
         /**
@@ -109,13 +114,35 @@ public class Message {
          */
         private String tla;
 
+        /**
+         * Creates the messages of this type read from the network.
+         */
+        private final Factory factory;
+
+        /**
+         * Slot of this type in a CommandTable.
+         */
+        private final int index;
+
         /**
          * Define the message type and specify its short name.
          *
-         * @param abbrev Short name of this message type, as a String.
+         * @param abbrev  Short name of this message type, as a String.
+         * @param factory Creates messages of this type from their three fields.
          */
-        private MessageType(String abbrev) {
+        private MessageType(String abbrev, Factory factory) {
             tla = abbrev;
+            this.factory = factory;
+            index = CommandTable.index(abbrev);
+        }
+
+        /**
+         * Return the slot of this type in a CommandTable.
+         *
+         * @return Index computed from the three letter abbreviation.
+         */
+        int getIndex() {
+            return index;
         }
 
         /**
@@ -129,11 +156,38 @@ public class Message {
         }
     }
 
+    /**
+     * Creates a message of one type from the three fields read off the network.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * Create the message.
+         *
+         * @param srcName Name of the originator of the message (may be null)
+         * @param dstName Name of the destination of the message (may be null)
+         * @param text    Text sent in this message (may be null)
+         * @return Instance of Message built from the fields.
+         */
+        Message make(String srcName, String dstName, String text);
+    }
+
     /**
      * The string sent when a field is null.
      */
     private static final String NULL_OUTPUT = "--";
 
+    /**
+     * Every message type, keyed by its handle.
+     */
+    private static final CommandTable<MessageType> TYPES = new CommandTable<>();
+
+    static {
+        for (MessageType type : MessageType.values()) {
+            TYPES.register(type.toString(), type);
+        }
+    }
+
 
     /**
      * The handle of the message.
@@ -155,6 +209,18 @@ public class Message {
      */
     private String msgText;
 
+    /**
+     * Bytes sent over the network for this message, encoded the first time they
+     * are needed and shared by every client the message is sent to. Cleared
+     * whenever the text changes.
+     */
+    private volatile ByteBuffer frame;
+
+    /**
+     * Bytes of this message in the binary format, cached like frame.
+     */
+    private volatile ByteBuffer binaryFrame;
+
     /**
      * Create a new message that contains actual IM text. The type of distribution
      * is defined by the handle and we must also set the name of the message sender,
@@ -230,6 +296,10 @@ public class Message {
         return new Message(MessageType.LOGGER, myName, null, null);
     }
 
+    public static Message makeReloadFilterMessage(String myName) {
+        return new Message(MessageType.RELOAD_FILTER, myName, null, null);
+    }
+
     public static Message makePControlMessage(String myName, String directTo) {
         return new Message(MessageType.PCONTROL, myName, directTo, null);
     }
@@ -405,35 +475,11 @@ public class Message {
      * @param srcName Name of the originator of the message (may be null)
      * @param text    Text sent in this message (may be null)
      * @return Instance of Message (or its subclasses) representing the handle,
-     * name, & text.
+     * name, & text, or null if the handle names no known message type.
      */
-    @SuppressWarnings("all")
     protected static Message makeMessage(String handle, String srcName, String dstName, String text) {
-        Message result = null;
-        if (handle.equals(MessageType.QUIT.toString())) result = makeQuitMessage(srcName);
-        else if (handle.equals(MessageType.HELLO.toString())) result = makeLoginMessage(srcName);
-        else if (handle.equals(MessageType.BROADCAST.toString())) result = makeBroadcastMessage(srcName, text);
-        else if (handle.equals(MessageType.ACKNOWLEDGE.toString())) result = makeAcknowledgeMessage(srcName);
-        else if (handle.equals(MessageType.NO_ACKNOWLEDGE.toString())) result = makeNoAcknowledgeMessage();
-        else if (handle.equals(MessageType.DIRECT.toString())) result = makeDirectMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.GROUP.toString())) result = makeGroupMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.RETRIEVE.toString())) result = makeRetrieveMessage(srcName, text);
-        else if (handle.equals(MessageType.DELETE.toString())) result = makeDeleteMessage(srcName, text);
-        else if (handle.equals(MessageType.UPDATE.toString())) result = makeUpdateMessage(srcName, text);
-        else if (handle.equals(MessageType.JOIN.toString())) result = makeJoinMessage(srcName, text);
-        else if (handle.equals(MessageType.LEAVE.toString())) result = makeLeaveMessage(srcName, text);
-        else if (handle.equals(MessageType.ROLE.toString())) result = makeSetRoleMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.WIRETAPU.toString())) result = makeWiretapUserMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.WIRETAPG.toString())) result = makeWiretapGroupMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.APPROVE.toString())) result = makeWiretapApproveMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.REJECT.toString())) result = makeWiretapRejectMessage(srcName, dstName, text);
-        else if (handle.equals(MessageType.RECALL.toString())) result = makeRecallMessage(srcName, text);
-        else if (handle.equals(MessageType.LOGGER.toString())) result = makeLoggerMessage(srcName);
-        else if (handle.equals(MessageType.PCONTROL.toString())) result = makePControlMessage(srcName, dstName);
-        else if (handle.equals(MessageType.SIGNIN.toString())) result = makeSigninMessage(srcName, text);
-        else if (handle.equals(MessageType.SIGNUP.toString())) result = makeSignupMessage(srcName, text);
-        else if (handle.equals(MessageType.HELP.toString())) result = makeHelpMessage(srcName);
-        return result;
+        MessageType type = TYPES.get(handle);
+        return type == null ? null : type.factory.make(srcName, dstName, text);
     }
 
     /**
@@ -467,6 +513,18 @@ public class Message {
         return new Message(MessageType.HELLO, myName);
     }
 
+    /**
+     * Create a new login message which also names the version of the protocol
+     * the client would like to use (see {@link BinaryFrame#VERSION}).
+     *
+     * @param myName   Name of the user who has just logged in.
+     * @param protocol Protocol version requested or acknowledged (may be null)
+     * @return Instance of Message specifying a new friend has just logged in.
+     */
+    public static Message makeLoginMessage(String myName, String protocol) {
+        return new Message(MessageType.HELLO, myName, null, protocol);
+    }
+
     /**
      * Return the type of this message.
      *
@@ -507,16 +565,69 @@ public class Message {
      * sets the parent control to a particular user
      */
     public void controlText() {
-        this.msgText = ParentControl.getInstance().filterBadWords(msgText);
+        String filtered = ParentControl.getInstance().filterBadWords(msgText);
+        if (filtered == null ? msgText != null : !filtered.equals(msgText)) {
+            this.msgText = filtered;
+            frame = null;
+            binaryFrame = null;
+        }
     }
 
 
+    /**
+     * Return this message with parental control applied, leaving this message
+     * untouched so that it can still be sent as is to other clients.
+     *
+     * @return A copy of the message with its bad words filtered out, or this
+     * message if there is nothing to filter.
+     */
+    public Message filtered() {
+        String filtered = ParentControl.getInstance().filterBadWords(msgText);
+        if (filtered == null ? msgText == null : filtered.equals(msgText)) {
+            return this;
+        }
+        return new Message(msgType, msgSender, msgReceiver, filtered);
+    }
+
     /**
      * Sets the text for wire tap
      * @param text the text appended to the wireTap message
      */
     public void setText(String text) {
         msgText = text;
+        frame = null;
+        binaryFrame = null;
+    }
+
+    /**
+     * Return the bytes sent over the network for this message. They are encoded
+     * once and shared, so sending the same message to many clients does not
+     * encode it again for each of them.
+     *
+     * @return Read-only buffer, with its own position, over the encoded message.
+     */
+    public ByteBuffer getFrame() {
+        ByteBuffer result = frame;
+        if (result == null) {
+            result = ByteBuffer.wrap(toString().getBytes()).asReadOnlyBuffer();
+            frame = result;
+        }
+        return result.duplicate();
+    }
+
+    /**
+     * Return the bytes sent over the network for this message to clients which
+     * negotiated the binary format. Like getFrame, they are encoded only once.
+     *
+     * @return Read-only buffer, with its own position, over the encoded message.
+     */
+    public ByteBuffer getBinaryFrame() {
+        ByteBuffer result = binaryFrame;
+        if (result == null) {
+            result = BinaryFrame.encode(this).asReadOnlyBuffer();
+            binaryFrame = result;
+        }
+        return result.duplicate();
     }
 
     /**
@@ -632,6 +743,15 @@ public class Message {
         return (msgType == MessageType.LOGGER);
     }
 
+    /**
+     * Determine if this message asks to reload the bad word dictionary.
+     *
+     * @return True if the message is a reload filter message; false otherwise.
+     */
+    public boolean isReloadFilterMessage() {
+        return (msgType == MessageType.RELOAD_FILTER);
+    }
+
     /**
      * Determine if this message is parent control text.
      *
@@ -746,22 +866,18 @@ public class Message {
      */
     @Override
     public String toString() {
-        String result = msgType.toString();
-        if (msgSender != null) {
-            result += " " + msgSender.length() + " " + msgSender;
-        } else {
-            result += " " + NULL_OUTPUT.length() + " " + NULL_OUTPUT;
-        }
-        if (msgReceiver != null) {
-            result += " " + msgReceiver.length() + " " + msgReceiver;
-        } else {
-            result += " " + NULL_OUTPUT.length() + " " + NULL_OUTPUT;
-        }
-        if (msgText != null) {
-            result += " " + msgText.length() + " " + msgText;
-        } else {
-            result += " " + NULL_OUTPUT.length() + " " + NULL_OUTPUT;
-        }
-        return result;
+        StringBuilder result = new StringBuilder(msgType.toString());
+        appendArgument(result, msgSender);
+        appendArgument(result, msgReceiver);
+        appendArgument(result, msgText);
+        return result.toString();
+    }
+
+    /**
+     * Append the length and value of one argument, or of the null marker.
+     */
+    private static void appendArgument(StringBuilder result, String argument) {
+        String value = argument != null ? argument : NULL_OUTPUT;
+        result.append(' ').append(value.length()).append(' ').append(value);
     }
-}
\ No newline at end of file
+}
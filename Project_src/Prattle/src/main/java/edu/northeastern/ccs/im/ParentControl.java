@@ -2,79 +2,229 @@ package edu.northeastern.ccs.im;
 
 
 import java.io.*;
-import java.util.Arrays;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
 
+/**
+ * Filters the bad words out of the messages sent to controlled users.
+ * <p>
+ * The dictionary is read from the file named by the prattle.badwords system
+ * property, or else from badwords.txt on the classpath. When it is a file, a
+ * background thread watches it and rebuilds the filter whenever it changes; an
+ * admin may also ask for a rebuild with {@link #reload()}. Each rebuild compiles
+ * a new immutable {@link WordFilter} and then publishes it with a single
+ * reference swap, so filtering never waits for a rebuild and always sees either
+ * the old list or the new one.
+ */
 public class ParentControl {
     /**
-     * List containing the bad words
+     * System property naming the dictionary file.
      */
-    private String[] words;
+    static final String DICTIONARY_PROPERTY = "prattle.badwords";
 
-    private static ParentControl instance;
+    private static final String RESOURCE = "badwords.txt";
 
     /**
-     * Method to read the data from the text file and create a list of bad words
+     * Time in ms to wait after a change for the writer to finish before reading
+     * the file.
      */
-    private ParentControl() {
-        try {
-            InputStream in = ParentControl.class.getClassLoader().getResourceAsStream("badwords.txt");
-            StringBuilder content = new StringBuilder();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+    private static final long SETTLE_MS = 200;
+
+    /**
+     * Compiled list of the bad words
+     */
+    private final AtomicReference<WordFilter> filter = new AtomicReference<>(WordFilter.compile(Collections.emptyList()));
+
+    /**
+     * Dictionary file, or null if it is read from the classpath.
+     */
+    private final Path dictionary;
+
+    /**
+     * Serialises rebuilds so an older list can never replace a newer one.
+     */
+    private final Object reloadLock = new Object();
+
+    private volatile WatchService watcher;
+
+    private static final class Holder {
+        private static final ParentControl INSTANCE = new ParentControl(locate());
+    }
+
+    /**
+     * Load the dictionary and, if it is a file, start watching it.
+     *
+     * @param dictionary Dictionary file, or null to read it from the classpath.
+     */
+    ParentControl(Path dictionary) {
+        this.dictionary = dictionary;
+        reload();
+        if (dictionary != null) {
+            watch();
+        }
+    }
+
+    public static ParentControl getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Find the dictionary file: the one named by the property, or the classpath
+     * resource when it is a plain file.
+     */
+    private static Path locate() {
+        String name = System.getProperty(DICTIONARY_PROPERTY);
+        if (name != null) {
+            return Paths.get(name).toAbsolutePath();
+        }
+        URL url = ParentControl.class.getClassLoader().getResource(RESOURCE);
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                LOGGER.info("parent control cannot watch " + url);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read and compile the dictionary again, then make it the one used by
+     * {@link #filterBadWords(String)}. If the dictionary cannot be read the
+     * current one is kept.
+     *
+     * @return The number of entries in use.
+     */
+    public int reload() {
+        synchronized (reloadLock) {
+            try {
+                WordFilter compiled = WordFilter.compile(read());
+                filter.set(compiled);
+                LOGGER.info("parent control loaded " + compiled.size() + " bad words");
+            } catch (final IOException e) {
+                LOGGER.info("parent control fails to read from the file");
+            }
+            return filter.get().size();
+        }
+    }
+
+    private List<String> read() throws IOException {
+        InputStream in = dictionary != null ? Files.newInputStream(dictionary)
+                : ParentControl.class.getClassLoader().getResourceAsStream(RESOURCE);
+        if (in == null) {
+            throw new FileNotFoundException(RESOURCE);
+        }
+        List<String> words = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
             String line = reader.readLine();
             while (line != null) {
-                content.append(line).append(System.lineSeparator());
+                words.add(line.replace("\r", ""));
                 line = reader.readLine();
             }
-            words = content.toString().replaceAll("\\r", "").split("\n");
-        } catch (final IOException e) {
-            LOGGER.info("parent control fails to read from the file");
+        }
+        return words;
+    }
 
+    /**
+     * Start the thread rebuilding the filter when the dictionary file is
+     * created, replaced or modified.
+     */
+    private void watch() {
+        Path dir = dictionary.getParent();
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            watcher = service;
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.info("parent control cannot watch " + dictionary);
+            close();
+            return;
         }
+        Thread thread = new Thread(() -> watchLoop(service), "prattle-badwords");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    public static ParentControl getInstance() {
-        if (instance == null) {
-            instance = new ParentControl();
+    private void watchLoop(WatchService service) {
+        Path name = dictionary.getFileName();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = changed(key, name);
+                if (changed) {
+                    // Let the writer finish, and fold its other events into one rebuild.
+                    Thread.sleep(SETTLE_MS);
+                    WatchKey more;
+                    while ((more = service.poll()) != null) {
+                        changed(more, name);
+                    }
+                    reload();
+                }
+                if (!key.isValid()) {
+                    LOGGER.info("parent control stops watching " + dictionary);
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() was called
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return instance;
     }
 
     /**
-     * Filters out the profanities with stars
-     *
-     * @param message string which is entered by the user
-     * @return a filtered message with stars replacing the bad words
+     * Consume the events of the key and return whether one was about the file.
      */
-    public String filterBadWords(final String message) {
-        StringBuilder sb = new StringBuilder();
-        String[] ws = message.split("\\s");
-        for (String word : ws) {
-            String cuss = word.toLowerCase().replaceAll("\\W+", "");
-            checkPatterns(word, cuss, sb);
-            sb.append(' ');
+    private static boolean changed(WatchKey key, Path name) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context())) {
+                changed = true;
+            }
         }
-        return sb.substring(0, sb.length() - 1);
+        key.reset();
+        return changed;
     }
 
     /**
-     * This method checks for the cuss word in the dictionary and replaces it with *
-     *
-     * @param word          the word detected in the message
-     * @param cuss          the word matched to the cuss word dictionary
-     * @param sb StringBuffer for concatenating the message
+     * Stop watching the dictionary file.
      */
-    private void checkPatterns(final String word, final String cuss, final StringBuilder sb) {
-        for (String pattern : words) {
-            if (cuss.matches(pattern)) {
-                char[] stars = new char[cuss.length()];
-                Arrays.fill(stars, '*');
-                String rep = new String(stars);
-                sb.append(word.replaceAll("\\w+", rep));
-                return;
+    void close() {
+        WatchService service = watcher;
+        watcher = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                LOGGER.info("parent control fails to stop watching " + dictionary);
             }
         }
-        sb.append(word);
     }
-}
\ No newline at end of file
+
+    /**
+     * Filters out the profanities with stars
+     *
+     * @param message string which is entered by the user
+     * @return a filtered message with stars replacing the bad words
+     */
+    public String filterBadWords(final String message) {
+        return filter.get().filter(message);
+    }
+}
@@ -3,13 +3,17 @@ package edu.northeastern.ccs.im;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 /**
  * This class is similar to the java.io.PrintWriter class, but this class's
- * methods work with our non-blocking Socket classes. This class could easily be
- * made to wait for network output (e.g., be made &quot;non-blocking&quot; in
- * technical parlance), but I have not worried about it yet.
+ * methods work with our non-blocking Socket classes. Messages are queued as
+ * bytes and written with gathering writes; whatever the socket cannot take
+ * right away stays queued until the next flush, which callers should attempt
+ * once the channel is writable again.
  * <p>
  * This work is licensed under the Creative Commons Attribution-ShareAlike 4.0
  * International License. To view a copy of this license, visit
@@ -26,9 +30,29 @@ public class PrintNetNB {
     private final SocketChannel channel;
 
     /**
-     * Number of times to try sending a message before we give up in frustration.
+     * Largest number of queued messages handed to a single gathering write.
      */
-    private static final int MAXIMUM_TRIES_SENDING = 100;
+    private static final int MAXIMUM_GATHERED = 16;
+
+    /**
+     * Bytes of the messages waiting to be written, in order.
+     */
+    private final Queue<ByteBuffer> pending;
+
+    /**
+     * Buffers handed to the current gathering write.
+     */
+    private final ByteBuffer[] gather;
+
+    /**
+     * Whether writing to the channel has failed; nothing more will be sent.
+     */
+    private volatile boolean failed;
+
+    /**
+     * Whether messages are sent in the binary format rather than as text.
+     */
+    private volatile boolean binary;
 
     /**
      * Creates a new instance of this class. Since, by definition, this class sends
@@ -41,6 +65,8 @@ public class PrintNetNB {
     public PrintNetNB(SocketChannel sockChan) {
         // Remember the channel that we will be using.
         channel = sockChan;
+        pending = new ConcurrentLinkedQueue<>();
+        gather = new ByteBuffer[MAXIMUM_GATHERED];
     }
 
     /**
@@ -53,32 +79,102 @@ public class PrintNetNB {
      */
     PrintNetNB(SocketNB connection) {
         // Remember the channel that we will be using.
-        channel = connection.getSocket();
+        this(connection.getSocket());
     }
 
     /**
      * Send a Message over the network. This method performs its actions by printing
      * the given Message over the SocketNB instance with which the PrintNetNB was
-     * instantiated. This returns whether our attempt to send the message was
-     * successful.
+     * instantiated. Any part of the message the socket cannot take right away is
+     * kept and sent by a later flush. This returns whether our attempt to send
+     * the message was successful.
      *
      * @param msg Message to be sent out over the network.
-     * @return True if we successfully send this message; false otherwise.
+     * @return True unless the connection has failed; false otherwise.
      */
     public boolean print(Message msg) {
-        String str = msg.toString();
-        ByteBuffer wrapper = ByteBuffer.wrap(str.getBytes());
-        int attemptsRemaining = MAXIMUM_TRIES_SENDING;
-        while (wrapper.hasRemaining() && (attemptsRemaining > 0)) {
-            try {
-                attemptsRemaining--;
-                channel.write(wrapper);
-            } catch (IOException e) {
-                // Show that this was unsuccessful
-                return false;
+        return enqueue(msg) && flush();
+    }
+
+    /**
+     * Queue a Message to be sent by the next flush, so that several messages can
+     * be sent with a single write.
+     *
+     * @param msg Message to be sent out over the network.
+     * @return True unless the connection has already failed.
+     */
+    public boolean enqueue(Message msg) {
+        if (failed) {
+            return false;
+        }
+        // The encoded bytes are shared with every other client receiving msg.
+        pending.add(binary ? msg.getBinaryFrame() : msg.getFrame());
+        return true;
+    }
+
+    /**
+     * Send every message queued from now on in the binary format (see
+     * BinaryFrame), once the other end has asked for it.
+     */
+    public void useBinaryFrames() {
+        binary = true;
+    }
+
+    /**
+     * Return true if messages are sent in the binary format.
+     *
+     * @return True once useBinaryFrames has been called.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Write as much of the queued output as the socket will take without
+     * waiting. When the socket's buffer fills up, the rest stays queued (see
+     * hasPendingOutput) rather than being retried in a loop.
+     *
+     * @return True unless writing to the channel failed.
+     */
+    public synchronized boolean flush() {
+        if (failed) {
+            return false;
+        }
+        try {
+            while (!pending.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : pending) {
+                    if (count == MAXIMUM_GATHERED) {
+                        break;
+                    }
+                    gather[count++] = buffer;
+                }
+                long written = channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                // Drop the messages which have been sent completely.
+                while (!pending.isEmpty() && !pending.peek().hasRemaining()) {
+                    pending.remove();
+                }
+                if (written == 0) {
+                    // The socket's buffer is full; wait until it is writable again.
+                    break;
+                }
             }
+        } catch (IOException e) {
+            // Show that this was unsuccessful
+            failed = true;
+            pending.clear();
+            return false;
         }
-        // Check to see if we were successful in our attempt to write the message
-        return !wrapper.hasRemaining();
+        return true;
+    }
+
+    /**
+     * Return true if queued output is still waiting for the socket to accept it.
+     *
+     * @return True if a later flush has bytes to write.
+     */
+    public boolean hasPendingOutput() {
+        return !pending.isEmpty();
     }
 }
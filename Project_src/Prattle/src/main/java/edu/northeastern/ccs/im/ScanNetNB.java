@@ -5,12 +5,7 @@ import org.apache.log4j.Level;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -35,26 +30,29 @@ import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
  */
 public class ScanNetNB {
 
-	private static final int BUFFER_SIZE = 64 * 1024;
-
-	private static final int DECIMAL_RADIX = 10;
-
-	private static final int HANDLE_LENGTH = 3;
-
-	private static final int MIN_MESSAGE_LENGTH = 7;
-
-	private static final String CHARSET_NAME = "us-ascii";
+	/** Size of the buffer kept by connections read with blocking reads. */
+	private static final int BLOCKING_BUFFER_SIZE = 4 * 1024;
 
 	private SocketChannel channel;
 
-	private Selector selector;
-
-	private SelectionKey key;
+	/** Pool from which a read buffer is leased for each non-blocking read. */
+	private final BufferPool pool;
 
-	private ByteBuffer buff;
+	/**
+	 * Buffer used for blocking reads. A thread waiting in a blocking read would
+	 * hold a pooled buffer for as long as the connection is idle, so such
+	 * connections keep a small buffer of their own instead.
+	 */
+	private ByteBuffer blockingBuff;
 
 	private Queue<Message> messages;
 
+	/** Decoder turning the bytes read into messages, across reads if need be. */
+	private final FrameDecoder decoder;
+
+	/** Whether the other end has closed its side of the connection. */
+	private volatile boolean endOfStream;
+
 	/**
 	 * Creates a new instance of this class. Since, by definition, this class takes
 	 * in input from the network, we need to supply the non-blocking Socket instance
@@ -66,19 +64,15 @@ public class ScanNetNB {
 	public ScanNetNB(SocketChannel sockChan) {
 		// Create the queue that will hold the messages received from over the network
 		messages = new ConcurrentLinkedQueue<>();
-		// Allocate the buffer we will use to read data
-		buff = ByteBuffer.allocate(BUFFER_SIZE);
-		// Remember the channel that we will be using.
+		// Read buffers are only leased while a read is in progress; any partial
+		// frame is carried over by the decoder.
+		pool = BufferPool.getInstance();
+		// Create the decoder which remembers partial frames between reads
+		decoder = new FrameDecoder();
+		// Remember the channel that we will be using. No selector is needed: reading
+		// from a non-blocking channel simply returns 0 when nothing has arrived, so
+		// an idle connection costs no more than its socket.
 		channel = sockChan;
-		try {
-			// Open the selector to handle our non-blocking I/O
-			selector = Selector.open();
-			// Register our channel to receive alerts to complete the connection
-			key = channel.register(selector, SelectionKey.OP_READ);
-		} catch (IOException e) {
-			// For the moment we are going to simply cover up that there was a problem.
-			assert false;
-		}
 	}
 
 	/**
@@ -94,42 +88,6 @@ public class ScanNetNB {
 		this(connection.getSocket());
 	}
 
-	/**
-	 * Read in a new argument from the IM server.
-	 *
-	 * @param charBuffer Buffer holding text from over the network.
-	 * @return String holding the next argument sent over the network.
-	 */
-	private String readArgument(CharBuffer charBuffer) {
-		// Compute the current position in the buffer
-		int pos = charBuffer.position();
-		// Compute the length of this argument
-		int length = 0;
-		// Track the number of locations visited.
-		int seen = 0;
-		// Assert that this character is a digit representing the length of the first argument
-		assert Character.isDigit(charBuffer.get(pos));
-		// Now read in the length of the first argument
-		while (Character.isDigit(charBuffer.get(pos))) {
-			// My quick-and-dirty numeric converter
-			length = length * DECIMAL_RADIX;
-			length += Character.digit(charBuffer.get(pos), DECIMAL_RADIX);
-			// Move to the next character
-			pos += 1;
-			seen += 1;
-		}
-		seen += 1;
-		if (length == 0) {
-			// Update our position
-			charBuffer.position(pos);
-			// If the length is 0, this argument is null
-			return null;
-		}
-		String result = charBuffer.subSequence(seen, length + seen).toString();
-		charBuffer.position(pos + length);
-		return result;
-	}
-
 	/**
 	 * Returns true if there is another line of input from this instance. This
 	 * method will NOT block while waiting for input. This class does not advance
@@ -144,63 +102,91 @@ public class ScanNetNB {
 		if (!messages.isEmpty()) {
 			return true;
 		}
+		// Blocking channels are only ever read by readMessages(), and nothing can
+		// arrive before a pending connection has been completed.
+		if (channel.isBlocking() || !channel.isConnected()) {
+			return false;
+		}
+		ByteBuffer buff = pool.lease();
 		try {
 			// Otherwise, check if we can read in at least one new message
-			if (selector.selectNow() != 0) {
-				assert key.isReadable();
-				// Read in the next set of commands from the channel.
-				channel.read(buff);
-				selector.selectedKeys().remove(key);
-				buff.flip();
-			} else {
+			int count = channel.read(buff);
+			if (count == 0) {
 				return false;
+			} else if (count < 0) {
+				endOfStream = true;
 			}
-			// Create a decoder which will convert our traffic to something useful
-			Charset charset = Charset.forName(CHARSET_NAME);
-			CharsetDecoder decoder = charset.newDecoder();
-			// Convert the buffer to a format that we can actually use.
-			CharBuffer charBuffer = decoder.decode(buff);
-			// get rid of any extra whitespace at the beginning
-			// Start scanning the buffer for any and all messages.
-			int start = 0;
-			// Scan through the entire buffer; check that we have the minimum message size
-			while ((start + MIN_MESSAGE_LENGTH) <= charBuffer.limit()) {
-				// If this is not the first message, skip extra space.
-				if (start != 0) {
-					charBuffer.position(start);
-				}
-				// First read in the handle
-				final String handle = charBuffer.subSequence(0, HANDLE_LENGTH).toString();
-				// Skip past the handle
-				charBuffer.position(start + HANDLE_LENGTH + 1);
-				// Read the first argument containing the sender's name
-				final String sender = readArgument(charBuffer);
-				// Skip past the leading space
-				charBuffer.position(charBuffer.position() + 2);
-				final String receiver = readArgument(charBuffer);
-				charBuffer.position(charBuffer.position() + 2);
-				// Read in the second argument containing the message
-				final String message = readArgument(charBuffer);
-				// Add this message into our queue
-
-				// Add this message into our queue
-				Message newMsg = Message.makeMessage(handle, sender, receiver, message);
-				messages.add(newMsg);
-				// And move the position to the start of the next character
-				start = charBuffer.position() + 1;
-			}
-			// Move any read messages out of the buffer so that we can add to the end.
-			buff.position(start);
-			// Move all of the remaining data to the start of the buffer.
-			buff.compact();
+			buff.flip();
+			decode(buff);
 		} catch (IOException ioe) {
-			// For the moment, we will cover up this exception and hope it never occurs.
-			assert false;
+			// A connection which failed (e.g. was reset) will never be readable again.
+			LOGGER.log(Level.INFO, "Closing a connection which cannot be read: " + ioe.toString());
+			endOfStream = true;
+		} finally {
+			pool.release(buff);
 		}
 		// Do we now have any messages?
 		return !messages.isEmpty();
 	}
 
+	/**
+	 * Wait until more input arrives on a blocking channel and queue any complete
+	 * messages it holds. This is meant to be called in a loop by the one thread
+	 * dedicated to the connection.
+	 *
+	 * @return False once the other end has closed the connection; true otherwise
+	 * @throws IOException Exception thrown if the channel cannot be read
+	 */
+	public boolean readMessages() throws IOException {
+		if (blockingBuff == null) {
+			blockingBuff = ByteBuffer.allocate(BLOCKING_BUFFER_SIZE);
+		}
+		if (channel.read(blockingBuff) < 0) {
+			endOfStream = true;
+			return false;
+		}
+		blockingBuff.flip();
+		decode(blockingBuff);
+		blockingBuff.clear();
+		return !endOfStream;
+	}
+
+	/**
+	 * Queue the messages completed by the bytes read. A client whose frames break
+	 * the decoder's limits is treated as having closed the connection, so that it
+	 * is terminated once the messages before the bad frame have been handled.
+	 *
+	 * @param buff Buffer (ready to be read) holding the bytes read
+	 */
+	private void decode(ByteBuffer buff) {
+		decoder.decode(buff, messages);
+		if (decoder.isMalformed() && !endOfStream) {
+			LOGGER.log(Level.INFO, "Closing a connection which sent a malformed frame");
+			endOfStream = true;
+		}
+	}
+
+	/**
+	 * Returns true if messages which have already been read off the network are
+	 * waiting to be returned. Unlike hasNextMessage, this never reads from the
+	 * channel.
+	 *
+	 * @return True if and only if parsed messages are queued in this instance
+	 */
+	public boolean hasBufferedMessage() {
+		return !messages.isEmpty();
+	}
+
+	/**
+	 * Returns true once a read has shown that the other end closed the
+	 * connection; no further input will ever arrive.
+	 *
+	 * @return True if the end of the stream has been reached
+	 */
+	public boolean isEndOfStream() {
+		return endOfStream;
+	}
+
 	/**
 	 * Advances past the current line and returns the line that was read. This
 	 * method returns the rest of the current line, excluding any line separator at
@@ -221,11 +207,11 @@ public class ScanNetNB {
 		return msg;
 	}
 
+	/**
+	 * Release the resources held by this scanner. Nothing is held beyond the
+	 * channel itself, which belongs to the caller, so this does nothing.
+	 */
 	public void close() {
-		try {
-			selector.close();
-		} catch (IOException e) {
-			assert false;
-		}
+		// The channel is closed by its owner.
 	}
-}
\ No newline at end of file
+}
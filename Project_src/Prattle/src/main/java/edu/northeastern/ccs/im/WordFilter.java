@@ -0,0 +1,221 @@
+package edu.northeastern.ccs.im;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * Compiled bad word dictionary. A word of a message is bad when, lower cased
+ * and stripped of everything but letters, digits and underscores, it is one of
+ * the dictionary entries; the entries are regular expressions matched against
+ * the whole stripped word.
+ * <p>
+ * Almost every entry is plain text, and those are looked up in a hash set. The
+ * few that use regular expression syntax are joined into one pattern compiled
+ * once. Entries which cannot match any stripped word (plain text with spaces,
+ * capitals or punctuation) are dropped. A message is then filtered in a single
+ * pass over its characters.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+final class WordFilter {
+
+    /**
+     * Characters with a meaning in a regular expression.
+     */
+    private static final String REGEX_SYNTAX = "\\[](){}?*+|.^$";
+
+    /**
+     * Plain text entries.
+     */
+    private final Set<String> words;
+
+    /**
+     * All the regular expression entries as alternatives of one pattern, or
+     * null if there are none.
+     */
+    private final Pattern patterns;
+
+    private final int patternCount;
+
+    private WordFilter(Set<String> words, List<String> regexes) {
+        this.words = words;
+        patterns = regexes.isEmpty() ? null : Pattern.compile(String.join("|", regexes));
+        patternCount = regexes.size();
+    }
+
+    /**
+     * Compile the given dictionary entries.
+     *
+     * @param entries Lines of the dictionary.
+     * @return A filter rejecting the words matched by the entries.
+     */
+    static WordFilter compile(Iterable<String> entries) {
+        Set<String> words = new HashSet<>();
+        List<String> regexes = new ArrayList<>();
+        for (String entry : entries) {
+            if (!isRegex(entry)) {
+                if (isWordText(entry)) {
+                    words.add(entry);
+                }
+            } else {
+                try {
+                    Pattern.compile(entry);
+                    regexes.add("(?:" + entry + ")");
+                } catch (PatternSyntaxException e) {
+                    LOGGER.info("parent control skips a bad pattern: " + entry);
+                }
+            }
+        }
+        return new WordFilter(words, regexes);
+    }
+
+    /**
+     * Return the number of entries which may match a word.
+     *
+     * @return Number of plain text entries and patterns kept.
+     */
+    int size() {
+        return words.size() + patternCount;
+    }
+
+    /**
+     * Return whether the given stripped word is in the dictionary.
+     *
+     * @param cuss Lower cased word holding only letters, digits and underscores.
+     * @return True if an entry matches the whole word.
+     */
+    boolean isBadWord(String cuss) {
+        return words.contains(cuss) || (patterns != null && patterns.matcher(cuss).matches());
+    }
+
+    /**
+     * Replace the bad words of a message with stars: every run of letters,
+     * digits and underscores of a bad word becomes as many stars as the stripped
+     * word has characters. Words are separated by single spaces in the result;
+     * trailing white space is dropped.
+     *
+     * @param message Text to be filtered (may be null)
+     * @return The filtered text.
+     */
+    String filter(String message) {
+        if (message == null) {
+            return null;
+        }
+        int end = message.length();
+        while (end > 0 && isSpace(message.charAt(end - 1))) {
+            end--;
+        }
+        StringBuilder sb = new StringBuilder(end);
+        int start = 0;
+        while (start <= end) {
+            int stop = start;
+            while (stop < end && !isSpace(message.charAt(stop))) {
+                stop++;
+            }
+            appendWord(message, start, stop, sb);
+            if (stop < end) {
+                sb.append(' ');
+            }
+            start = stop + 1;
+        }
+        return sb.toString();
+    }
+
+    private void appendWord(String message, int start, int stop, StringBuilder sb) {
+        String cuss = strip(message, start, stop);
+        if (!isBadWord(cuss)) {
+            sb.append(message, start, stop);
+            return;
+        }
+        boolean inRun = false;
+        for (int i = start; i < stop; i++) {
+            char c = message.charAt(i);
+            if (isWordChar(c)) {
+                if (!inRun) {
+                    for (int j = 0; j < cuss.length(); j++) {
+                        sb.append('*');
+                    }
+                    inRun = true;
+                }
+            } else {
+                sb.append(c);
+                inRun = false;
+            }
+        }
+    }
+
+    /**
+     * Lower case the word and keep its letters, digits and underscores.
+     */
+    private static String strip(String message, int start, int stop) {
+        StringBuilder cuss = new StringBuilder(stop - start);
+        for (int i = start; i < stop; i++) {
+            char c = message.charAt(i);
+            if (c >= 128) {
+                // Lower casing may turn other characters into ASCII ones.
+                return stripSlow(message.substring(start, stop));
+            }
+            if (isWordChar(c)) {
+                cuss.append(Character.toLowerCase(c));
+            }
+        }
+        return cuss.toString();
+    }
+
+    private static String stripSlow(String word) {
+        String lower = word.toLowerCase();
+        StringBuilder cuss = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (isWordChar(c)) {
+                cuss.append(c);
+            }
+        }
+        return cuss.toString();
+    }
+
+    /**
+     * Return whether the entry uses regular expression syntax.
+     */
+    private static boolean isRegex(String entry) {
+        for (int i = 0; i < entry.length(); i++) {
+            if (REGEX_SYNTAX.indexOf(entry.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return whether the plain text entry could equal a stripped word.
+     */
+    private static boolean isWordText(String entry) {
+        for (int i = 0; i < entry.length(); i++) {
+            char c = entry.charAt(i);
+            if (!isWordChar(c) || (c >= 'A' && c <= 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same characters as \w in a regular expression.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Same characters as \s in a regular expression.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,80 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * Runs clients on a pool of worker threads only when they have work to do. A
+ * client is never run by two workers at once: requests that arrive while it is
+ * running are folded into one more pass over the client.
+ */
+abstract class ClientDispatcher {
+
+    /**
+     * Threads on which the clients are run.
+     */
+    private final Executor workers;
+
+    /**
+     * Create a new dispatcher running clients on the given workers.
+     *
+     * @param workers Executor on which clients will be run.
+     */
+    ClientDispatcher(Executor workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Ask for the given client to be run. If the client is already running, it
+     * will be run once more as soon as it finishes.
+     *
+     * @param client Client that has work to do.
+     */
+    void dispatch(ClientRunnable client) {
+        if (client.claimDispatch()) {
+            try {
+                workers.execute(() -> drain(client));
+            } catch (RejectedExecutionException e) {
+                LOGGER.info("Caught Exception: " + e.toString());
+                client.releaseDispatch();
+            }
+        }
+    }
+
+    /**
+     * Run the given client on the calling thread, unless it is already running
+     * elsewhere, in which case that worker makes one more pass over it.
+     *
+     * @param client Client that has work to do.
+     */
+    void runNow(ClientRunnable client) {
+        if (client.claimDispatch()) {
+            drain(client);
+        }
+    }
+
+    /**
+     * Run the client until nobody has asked for another pass.
+     *
+     * @param client Client which this worker has claimed.
+     */
+    private void drain(ClientRunnable client) {
+        do {
+            try {
+                client.run();
+            } catch (RuntimeException e) {
+                LOGGER.info("Caught Exception: " + e.toString());
+            }
+        } while (!client.releaseDispatch());
+        afterRun(client);
+    }
+
+    /**
+     * Called on the worker thread each time the client has been released.
+     *
+     * @param client Client which has just been run.
+     */
+    protected abstract void afterRun(ClientRunnable client);
+}
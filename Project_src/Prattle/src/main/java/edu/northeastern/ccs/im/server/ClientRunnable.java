@@ -4,10 +4,16 @@ import java.io.IOException;
 import java.nio.channels.SocketChannel;
 import java.sql.Timestamp;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import org.apache.log4j.Level;
+import edu.northeastern.ccs.im.BinaryFrame;
+import edu.northeastern.ccs.im.CommandTable;
 import edu.northeastern.ccs.im.Message;
+import edu.northeastern.ccs.im.ParentControl;
 import edu.northeastern.ccs.im.PrintNetNB;
 import edu.northeastern.ccs.im.ScanNetNB;
 import org.apache.log4j.Logger;
@@ -45,15 +51,52 @@ public class ClientRunnable implements Runnable {
     private static final long TERMINATE_AFTER_INACTIVE_IN_MS = 600000;
 
     /**
-     * Time at which we should send a response to the (private) messages we were
-     * sent.
+     * Default number of incoming messages handled each time the client is run.
      */
-    private Date sendResponses;
+    static final int DEFAULT_INPUT_BUDGET = 64;
 
     /**
-     * Time at which the client should be terminated due to lack of activity.
+     * Default number of offline messages read and queued for the client at once.
      */
-    private GregorianCalendar terminateInactivity;
+    static final int DEFAULT_INBOX_CHUNK = 100;
+
+    /**
+     * Dispatch states: not running, running, and running with another pass requested.
+     */
+    private static final int DISPATCH_IDLE = 0;
+    private static final int DISPATCH_RUNNING = 1;
+    private static final int DISPATCH_RERUN = 2;
+
+    /**
+     * Wheel holding this client's inactivity and special response deadlines.
+     */
+    private final TimingWheel timers;
+
+    /**
+     * Time, on the wheel's clock, at which the client last sent us a message.
+     */
+    private volatile long lastActivity;
+
+    /**
+     * Timeout checking whether the client has been inactive for too long.
+     */
+    private volatile TimingWheel.Timeout inactivityTimeout;
+
+    /**
+     * Timeout after which the special responses are sent, or null when none are
+     * waiting.
+     */
+    private TimingWheel.Timeout responseTimeout;
+
+    /**
+     * Whether the client has been inactive for too long and must be terminated.
+     */
+    private volatile boolean inactive;
+
+    /**
+     * Whether the special responses have waited long enough to be sent.
+     */
+    private volatile boolean responsesDue;
 
     /**
      * Queue of special Messages that we must send immediately.
@@ -86,9 +129,10 @@ public class ClientRunnable implements Runnable {
     private int userId;
 
     /**
-     * Name that the client used when connecting to the server.
+     * Name that the client used when connecting to the server. Set on the
+     * database stage when the client signs in.
      */
-    private String name;
+    private volatile String name;
 
     /**
      * Password the client used when connecting to the server
@@ -109,12 +153,19 @@ public class ClientRunnable implements Runnable {
     /**
      * Whether this client is validated, confirms is the username and password match
      */
-    private boolean validated;
+    private volatile boolean validated;
+
+    /**
+     * Whether a sign-in or sign-up is being checked on the database stage; no
+     * other input is handled until it is done.
+     */
+    private volatile boolean validating;
 
     /**
-     * To terminate a clients session. Scenarios include: inactivity and logoff
+     * To terminate a clients session. Scenarios include: inactivity and logoff.
+     * Set from the database stage too, and acted upon by the thread running the client.
      */
-    private boolean terminate;
+    private volatile boolean terminate;
 
     /**
      * The future that is used to schedule the client for execution in the thread
@@ -122,15 +173,64 @@ public class ClientRunnable implements Runnable {
      */
     private ScheduledFuture<ClientRunnable> runnableMe;
 
+    /**
+     * Dispatcher which runs this client when it has work to do, or null when the
+     * client is simply polled by the scheduled thread pool.
+     */
+    private volatile ClientDispatcher dispatcher;
+
+    /**
+     * Whether this client is being run by a dispatcher worker (see DISPATCH_*).
+     */
+    private final AtomicInteger dispatchState;
+
+    /**
+     * Whether the connection with this client has been shut down.
+     */
+    private volatile boolean closed;
+
     /**
      * DB connection
      */
     private SQLDB db;
 
+    /**
+     * Lane of the database stage on which this client's database work runs.
+     */
+    private final DatabaseStage.Lane dbLane;
+
+    /**
+     * Profile of the signed-in user (role, control flag, ...), loaded at sign-in
+     * and kept current by SQLDB; null until the client is validated.
+     */
+    private final AtomicReference<UserProfiles.Handle> profile = new AtomicReference<>();
+
     /**
      * Collection of messages queued up to be sent to this client.
      */
-    private Queue<Message> waitingList;
+    private OutboundQueue waitingList;
+
+    /**
+     * Most incoming messages handled in one run, after which the client yields to
+     * the others and handles the rest on its next run.
+     */
+    private final int inputBudget;
+
+    /**
+     * Most offline messages read and queued at once when the user signs in.
+     */
+    private final int inboxChunk;
+
+    /**
+     * Whether messages received while offline may still wait in the user's
+     * inbox; the next chunk is read once the outbound queue has been sent.
+     */
+    private volatile boolean inboxPending;
+
+    /**
+     * Whether a chunk of the inbox is being read on the database stage.
+     */
+    private volatile boolean inboxLoading;
 
     /**
      * Keyword in the user input for CRUD operations. Used to view the messages
@@ -204,10 +304,33 @@ public class ClientRunnable implements Runnable {
      * Keyword in the user input for CRUD operations. Used to see the wiretaps
      */
     private static final String WIRETAPS = "WIRETAPS";
+
     /**
-     * IP constant
+     * Handler of each request a client may send, keyed by its handle.
      */
-    private static final String ADDRESS = "IP";
+    private static final CommandTable<BiConsumer<ClientRunnable, Message>> HANDLERS = new CommandTable<>();
+
+    static {
+        registerHandler("BYE", (client, msg) -> client.terminate());
+        registerHandler("DIR", offloaded(ClientRunnable::directMessage));
+        registerHandler("GRP", offloaded(ClientRunnable::groupMessage));
+        registerHandler("RET", offloaded(ClientRunnable::retrieve));
+        registerHandler("JIN", offloaded(ClientRunnable::join));
+        registerHandler("LVE", offloaded(ClientRunnable::leave));
+        registerHandler("DEL", offloaded((client, msg) -> client.delete()));
+        registerHandler("UPD", offloaded(ClientRunnable::update));
+        registerHandler("BCT", ClientRunnable::display);
+        registerHandler("RCL", offloaded(ClientRunnable::recallMessage));
+        registerHandler("WTU", offloaded(ClientRunnable::wiretapUserRequest));
+        registerHandler("WTG", offloaded(ClientRunnable::wiretapGroupRequest));
+        registerHandler("APR", offloaded(ClientRunnable::wiretapApprove));
+        registerHandler("RJT", offloaded(ClientRunnable::wiretapReject));
+        registerHandler("RLE", offloaded(ClientRunnable::setRole));
+        registerHandler("LOG", offloaded(ClientRunnable::logger));
+        registerHandler("PCL", offloaded(ClientRunnable::pcontrol));
+        registerHandler("RFL", offloaded(ClientRunnable::reloadFilter));
+        registerHandler("HLP", ClientRunnable::help);
+    }
 
 
     /**
@@ -219,11 +342,26 @@ public class ClientRunnable implements Runnable {
      *                     connection
      */
     public ClientRunnable(SocketChannel client) throws IOException {
+        this(client, false);
+    }
+
+    /**
+     * Create a new client whose channel is either non-blocking (polled or watched
+     * by a selector) or blocking (read by a thread dedicated to the connection).
+     *
+     * @param client   SocketChannel over which we will communicate with this new
+     *                 client
+     * @param blocking True if the channel is to be read with blocking reads
+     * @throws IOException Exception thrown if we have trouble completing this
+     *                     connection
+     */
+    ClientRunnable(SocketChannel client, boolean blocking) throws IOException {
         // initialize SQLDB
         db = SQLDB.getInstance();
+        dbLane = DatabaseStage.getInstance().newLane();
         // Set up the SocketChannel over which we will communicate.
         socket = client;
-        socket.configureBlocking(false);
+        socket.configureBlocking(blocking);
         // Create the class we will use to receive input
         input = new ScanNetNB(socket);
         socket.getRemoteAddress();
@@ -234,15 +372,19 @@ public class ClientRunnable implements Runnable {
         // Create our queue of special messages
         specialResponse = new LinkedList<>();
         // Create the queue of messages to be sent
-        waitingList = new ConcurrentLinkedQueue<>();
+        waitingList = OutboundQueue.fromProperties();
         // Create our queue of message we must respond to immediately
         immediateResponse = new LinkedList<>();
+        inputBudget = Math.max(1, Integer.getInteger(ServerConstants.INPUT_BUDGET_PROPERTY, DEFAULT_INPUT_BUDGET));
+        inboxChunk = Math.max(1, Integer.getInteger(ServerConstants.INBOX_CHUNK_PROPERTY, DEFAULT_INBOX_CHUNK));
+        terminate = false;
+        dispatchState = new AtomicInteger(DISPATCH_IDLE);
         // Mark that the client is active now and start the timer until we
         // terminate for inactivity.
-        terminateInactivity = new GregorianCalendar();
-        terminateInactivity
-                .setTimeInMillis(terminateInactivity.getTimeInMillis() + TERMINATE_AFTER_INACTIVE_IN_MS);
-        terminate = false;
+        timers = TimingWheel.getInstance();
+        lastActivity = timers.now();
+        inactivityTimeout = timers.schedule(this::checkInactivity, TERMINATE_AFTER_INACTIVE_IN_MS,
+                TimeUnit.MILLISECONDS);
 
         ip = socket.getRemoteAddress().toString();
     }
@@ -278,8 +420,7 @@ public class ClientRunnable implements Runnable {
         if (input.hasNextMessage()) {
             // If a message exists, try to use it to initialize the connection
             // Update the time until we terminate this client due to inactivity.
-            terminateInactivity.setTimeInMillis(
-                    new GregorianCalendar().getTimeInMillis() + TERMINATE_AFTER_INACTIVE_IN_MS);
+            lastActivity = timers.now();
             Message msg = input.nextMessage();
             initialize(msg);
         }
@@ -290,6 +431,12 @@ public class ClientRunnable implements Runnable {
      * @param msg incoming message
      */
     private void initialize(Message msg) {
+        if (BinaryFrame.VERSION.equals(msg.getText()) && !output.isBinary()) {
+            // The client asked for the binary protocol: acknowledge in that format
+            // and send it nothing else from now on.
+            output.useBinaryFrames();
+            output.enqueue(Message.makeLoginMessage(msg.getSender(), BinaryFrame.VERSION));
+        }
         if (setUserName(msg.getSender())) {
             // Set that the client is initialized.
             initialized = true;
@@ -303,12 +450,24 @@ public class ClientRunnable implements Runnable {
      */
     private void checkForValidation() {
         // Check if there are any input messages to read
-        if (input.hasNextMessage()) {
-            terminateInactivity
-                    .setTimeInMillis(terminateInactivity.getTimeInMillis() + TERMINATE_AFTER_INACTIVE_IN_MS);
-            // If a message exists, try to use it to initialize the connection
+        if (!validating && input.hasNextMessage()) {
+            lastActivity = timers.now();
+            // If a message exists, try to use it to initialize the connection. The
+            // credentials are checked on the database stage, so that a slow sign-in
+            // does not hold up the other clients served by this thread.
             Message msg = input.nextMessage();
-            validate(msg);
+            validating = true;
+            runBlocking(() -> {
+                try {
+                    validate(msg);
+                } finally {
+                    validating = false;
+                    // A client terminated during the check must not keep the profile it opened.
+                    if (closed && profile.getAndSet(null) != null) {
+                        db.closeProfile(getName());
+                    }
+                }
+            });
         }
     }
 
@@ -318,16 +477,18 @@ public class ClientRunnable implements Runnable {
      */
     private void validate(Message msg) {
         password = msg.getText();
-        name = msg.getSender();
+        setName(msg.getSender());
         if (msg.isSignupMessage() && !db.checkUser(getName())) {
             db.create(getUserId(), getName(), password, socket.socket().getInetAddress().toString(), 0);
             db.setIP(this.getName(), ip);
+            profile.set(db.openProfile(getName()));
             validated = true;
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(), "Nice to meet you " + getName() + "! Remember your credentials to be able to sign-in in future."), getName());
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(), "If you are not familiar with the service we provide, user [HELP] command to get the instructions."), getName());
         } else if (msg.isSigninMessage() && db.validateCredentials(getName(), password)) {
             db.setIP(this.getName(), ip);
-            int role = db.getUserRole(this.getName());
+            profile.set(db.openProfile(getName()));
+            int role = role();
             if (role == 0) {
                 Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(), "You are an admin. REMEMBER: With Great Power Comes Great Responsibility!"), getName());
             } else if (role == 1) {
@@ -357,7 +518,7 @@ public class ClientRunnable implements Runnable {
      * @param password validation password
      */
     public void signin(String username, String password) {
-        this.name = username;
+        setName(username);
         this.initialize(Message.makeLoginMessage(username));
         this.validate(Message.makeSigninMessage(username, password));
     }
@@ -369,7 +530,7 @@ public class ClientRunnable implements Runnable {
      * @param password validation password
      */
     public void signup(String username, String password) {
-        this.name = username;
+        setName(username);
         this.initialize(Message.makeLoginMessage(username));
         this.validate(Message.makeSignupMessage(username, password));
     }
@@ -379,18 +540,120 @@ public class ClientRunnable implements Runnable {
      * send all queued messages from all senders to respective user
      */
     private void sendAllQueuedMessages() {
-        Timestamp lastSeen = db.retrieveLastSeen(getName());
-        if (lastSeen != null) {
-            List<String> queuedMessages = db.getAllQueuedMessagesForUser(getName(), lastSeen);
-            if (!queuedMessages.isEmpty()){
-                Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(), "We keep track of incoming messages you receive while being offline. Here is the list of all new messages:"), getName());
+        deliverInboxChunk(true);
+    }
+
+    /**
+     * Read the next chunk of the user's inbox, no larger than what the outbound
+     * queue can still hold, and queue it. Only the messages actually queued are
+     * removed from the inbox; the others are read again with the next chunk.
+     *
+     * @param announce Whether to tell the user first that these messages arrived
+     *                 while offline.
+     */
+    private void deliverInboxChunk(boolean announce) {
+        int max = Math.max(1, Math.min(inboxChunk, waitingList.remainingCapacity()));
+        List<MessageDB.QueuedMessage> queuedMessages = new ArrayList<>();
+        int read = db.readQueuedMessages(getName(), max, queuedMessages);
+        if (announce && queuedMessages.stream().anyMatch(stored -> !stored.recalled)) {
+            Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(), "We keep track of incoming messages you receive while being offline. Here is the list of all new messages:"), getName());
+        }
+        List<Integer> handled = deliverStoredMessages(queuedMessages);
+        db.removeQueuedMessages(getName(), handled);
+        inboxPending = read == max || handled.size() < read;
+    }
+
+    /**
+     * Once the socket has taken everything queued for the client, read the next
+     * chunk of its inbox on the database stage, so a large backlog is streamed to
+     * it without ever filling the outbound queue or piling up behind the socket.
+     */
+    private void continueInbox() {
+        if (inboxPending && !inboxLoading && !terminate && waitingList.isEmpty() && !output.hasPendingOutput()) {
+            inboxLoading = true;
+            runBlocking(() -> {
+                try {
+                    // Messages queued are removed from the inbox: leave them there for a client going away.
+                    if (!closed) {
+                        deliverInboxChunk(false);
+                    }
+                } finally {
+                    inboxLoading = false;
+                }
+            });
+        }
+    }
+
+    /**
+     * Send a message to each of the given users, and return those no signed-in
+     * session took it from: they must find it in their inbox, either when they
+     * next sign in or once a session whose queue refused it has caught up.
+     * Delivery is tried first so that a user going away in between is queued
+     * rather than missed.
+     *
+     * @param msg   Message to be sent.
+     * @param users Recipients of the message.
+     * @return The recipients who did not get the message.
+     */
+    private static List<String> deliver(Message msg, Collection<String> users) {
+        List<String> missed = new ArrayList<>();
+        for (String user : users) {
+            if (!Prattle.directMessage(msg, user)) {
+                missed.add(user);
             }
-            for (String msg : queuedMessages) {
-                String fromUser = msg.split(",")[0].split(":")[1];
-                String message = msg.split(",")[1].split(":")[1];
-                Prattle.directMessage(Message.makeDirectMessage(fromUser, getName(), message), getName());
+        }
+        return missed;
+    }
+
+    /**
+     * Once a client whose outbound queue spilled has caught up, read its inbox,
+     * where the messages refused in the meantime were put.
+     */
+    private void replaySpilledMessages() {
+        if (waitingList.endSpill() && getName() != null) {
+            inboxPending = true;
+        }
+    }
+
+    /**
+     * Note that messages were put in this user's inbox after it was last read,
+     * so that they are sent once the client has caught up.
+     */
+    public void inboxChanged() {
+        inboxPending = true;
+        wakeUp();
+    }
+
+    /**
+     * Queue the stored messages returned by the database on this client's own
+     * outbound queue, filtered as Prattle.directMessage would filter them. Stops
+     * at the first message for which the queue has no room, so that the messages
+     * left over keep their order when they are read again.
+     *
+     * @param queuedMessages Messages for the user, in the order they were sent.
+     * @return The ids of the messages queued, and of the recalled ones skipped.
+     */
+    private List<Integer> deliverStoredMessages(List<MessageDB.QueuedMessage> queuedMessages) {
+        List<Integer> handled = new ArrayList<>();
+        if (queuedMessages.isEmpty()) {
+            return handled;
+        }
+        boolean controlled = isControlled();
+        Map<String, Boolean> controlledSenders = new HashMap<>();
+        for (MessageDB.QueuedMessage stored : queuedMessages) {
+            if (!stored.recalled) {
+                Message msg = Message.makeDirectMessage(stored.from, getName(), stored.text);
+                if (controlled || controlledSenders.computeIfAbsent(stored.from, db::isControlled)) {
+                    msg = msg.filtered();
+                }
+                if (!waitingList.offerIfRoom(msg)) {
+                    break;
+                }
             }
+            handled.add(stored.messageID);
         }
+        wakeUp();
+        return handled;
     }
 
 
@@ -401,12 +664,52 @@ public class ClientRunnable implements Runnable {
      */
     private void handleSpecial(Message msg) {
         if (specialResponse.isEmpty()) {
-            sendResponses = new Date();
-            sendResponses.setTime(sendResponses.getTime() + SPECIAL_RESPONSE_DELAY_IN_MS);
+            responsesDue = false;
+            responseTimeout = timers.schedule(this::specialResponsesDue, SPECIAL_RESPONSE_DELAY_IN_MS,
+                    TimeUnit.MILLISECONDS);
         }
         specialResponse.add(msg);
     }
 
+    /**
+     * Called by the timing wheel once the special responses have waited long
+     * enough: ask for the client to be run so that they are sent.
+     */
+    private void specialResponsesDue() {
+        responsesDue = true;
+        wakeUp();
+    }
+
+    /**
+     * Called by the timing wheel when the client may have been inactive for too
+     * long. Messages received in the meantime only moved lastActivity forward, so
+     * the check is simply pushed back by the time they bought.
+     */
+    private void checkInactivity() {
+        if (closed) {
+            return;
+        }
+        long left = TimeUnit.MILLISECONDS.toNanos(TERMINATE_AFTER_INACTIVE_IN_MS)
+                - (timers.now() - lastActivity);
+        if (left > 0) {
+            inactivityTimeout = timers.schedule(this::checkInactivity, left, TimeUnit.NANOSECONDS);
+        } else {
+            inactive = true;
+            wakeUp();
+        }
+    }
+
+    /**
+     * Ask the dispatcher, if there is one, to run this client. Polled clients
+     * notice on their next run anyway.
+     */
+    private void wakeUp() {
+        ClientDispatcher current = dispatcher;
+        if (current != null) {
+            current.dispatch(this);
+        }
+    }
+
     /**
      * Check if the message is properly formed. At the moment, this means checking
      * that the identifier is set properly.
@@ -420,16 +723,19 @@ public class ClientRunnable implements Runnable {
     }
 
     /**
-     * Immediately send this message to the client. This returns if we were
-     * successful or not in our attempt to send the message.
+     * Queue this message to be sent to the client by the flush at the end of this
+     * run. This returns if we were successful or not in our attempt to send the
+     * message.
      *
-     * @param message Message to be sent immediately.
-     * @return True if we sent the message successfully; false otherwise.
+     * @param message Message to be sent.
+     * @return True if the message was queued; false if the connection has failed.
      */
     private boolean sendMessage(Message message) {
-        String str = "\t" + message.toString();
-        LOGGER.log(Level.INFO, str);
-        return output.print(message);
+        if (LOGGER.isInfoEnabled()) {
+            String str = "\t" + message.toString();
+            LOGGER.log(Level.INFO, str);
+        }
+        return output.enqueue(message);
     }
 
     /**
@@ -456,9 +762,15 @@ public class ClientRunnable implements Runnable {
      * the client.
      *
      * @param message Complete message to be sent.
+     * @return True if the message was queued; false if the queue's policy refused it.
      */
-    public void enqueueMessage(Message message) {
-        waitingList.add(message);
+    public boolean enqueueMessage(Message message) {
+        boolean queued = waitingList.offer(message);
+        if (!queued) {
+            LOGGER.info("Outbound queue full (" + waitingList.getPolicy() + ") for " + name);
+        }
+        wakeUp();
+        return queued;
     }
 
     /**
@@ -476,7 +788,12 @@ public class ClientRunnable implements Runnable {
      * @param name The name for which this ClientRunnable.
      */
     public void setName(String name) {
+        String oldName = this.name;
         this.name = name;
+        if (!Objects.equals(oldName, name)) {
+            // Keep the server's index of sessions by name up to date.
+            Prattle.renameClient(this, oldName, name);
+        }
     }
 
     /**
@@ -523,8 +840,9 @@ public class ClientRunnable implements Runnable {
         try {
             respond();
         } finally {
-            // When it is appropriate, terminate the current client.
-            if (terminate) {
+            // When it is appropriate, terminate the current client. A client which
+            // let its outbound queue overflow under the DISCONNECT policy is cut off.
+            if (terminate || waitingList.isOverflowed()) {
                 terminateClient();
             }
         }
@@ -547,19 +865,28 @@ public class ClientRunnable implements Runnable {
 
         // Check to make sure we have a client to send to.
         boolean processSpecial = !specialResponse.isEmpty()
-                && ((!initialized) || (!waitingList.isEmpty()) || sendResponses.before(new Date()));
+                && ((!initialized) || (!waitingList.isEmpty()) || responsesDue);
         boolean keepAlive = !processSpecial;
         // Send the responses to any special messages we were asked.
         keepAlive = respondSpecial(processSpecial, keepAlive);
         keepAlive = respondWaiting(processSpecial, keepAlive);
+        // Hand everything queued above to the socket in as few writes as possible;
+        // whatever it cannot take yet is sent on a later run.
+        if (!output.flush()) {
+            keepAlive = false;
+        }
+        replaySpilledMessages();
+        continueInbox();
         terminate |= !keepAlive;
+        // A client which closed its end of the connection will never talk to us again.
+        terminate |= input.isEndOfStream() && !input.hasBufferedMessage();
     }
 
     /**
      * If a user is logged in for a long time without activity, their connection will be terminated by this method
      */
     private void terminateInactive() {
-        if (!terminate && terminateInactivity.before(new GregorianCalendar())) {
+        if (!terminate && inactive) {
             String str = "Timing out or forcing off a user " + name;
             LOGGER.log(Level.INFO, str);
             terminateClient();
@@ -574,12 +901,17 @@ public class ClientRunnable implements Runnable {
      * @return true if the queued message is valid and needs a response
      */
     private boolean respondWaiting(boolean processSpecial, boolean keepAlive) {
-        if (!waitingList.isEmpty()) {
+        if (output.hasPendingOutput()) {
+            output.flush();
+        }
+        // Hold the messages back while the socket has not taken the last ones, so
+        // that a stalled reader fills its bounded queue and the queue's policy applies.
+        if (!waitingList.isEmpty() && !output.hasPendingOutput()) {
             if (!processSpecial) {
                 keepAlive = false;
             }
             do {
-                Message msg = waitingList.remove();
+                Message msg = waitingList.poll();
                 boolean sentGood = sendMessage(msg);
                 keepAlive |= sentGood;
             } while (!waitingList.isEmpty());
@@ -601,6 +933,9 @@ public class ClientRunnable implements Runnable {
             while (!specialResponse.isEmpty()) {
                 keepAlive |= sendMessage(specialResponse.remove());
             }
+            // Nothing is left for the pending timeout to send.
+            responseTimeout.cancel();
+            responseTimeout = null;
         }
         return keepAlive;
     }
@@ -617,70 +952,77 @@ public class ClientRunnable implements Runnable {
     }
 
     /**
-     * Gets the next message from the user's console
+     * Handle the messages the user has sent, up to the input budget. Messages past
+     * the budget stay queued in the scanner: a dispatcher runs the client again
+     * after the other clients waiting for a worker, and a polled client handles
+     * them on its next run. Until the client is validated, at most one message is
+     * handled per run, and none while its sign-in is being checked.
      */
     private void respondIncoming() {
-        if (input.hasNextMessage()) {
-            terminateInactivity.setTimeInMillis(
-                    new GregorianCalendar().getTimeInMillis() + TERMINATE_AFTER_INACTIVE_IN_MS);
+        int budget = validating ? 0 : validated ? inputBudget : 1;
+        for (int handled = 0; handled < budget && !terminate && input.hasNextMessage(); handled++) {
+            // Update the time until we terminate the client for inactivity; the
+            // timing wheel takes it into account when the timeout comes up.
+            lastActivity = timers.now();
             // Get the next message
             Message msg = input.nextMessage();
-            // Update the time until we terminate the client for
-            // inactivity.
             executeRequest(msg);
         }
     }
 
     /**
      * Depending on the user input the handles are considered and passed on to the server,
-     * for implementing the CRUD operations.
+     * for implementing the CRUD operations. The handler is found in HANDLERS by the
+     * message's handle; messages without a handler are ignored.
      *
      * @param msg Message which we are interested in and that needs to be executed by the server
      */
-    @SuppressWarnings("all")
     private void executeRequest(Message msg) {
-        if (msg.terminate()) {
-            terminate();
-        }
-        if (msg.isDirectMessage()) {
-            directMessage(msg);
-        } else if (msg.isGroupMessage()) {
-            groupMessage(msg);
-        } else if (msg.isRetrieveMessage()) {
-            retrieve(msg);
-        } else if (msg.isJoinMessage()) {
-            join(msg);
-        } else if (msg.isLeaveMessage()) {
-            leave(msg);
-        } else if (msg.isDeleteMessage()) {
-            delete();
-        } else if (msg.isUpdateMessage()) {
-            update(msg);
-        } else if (msg.isDisplayMessage()) {
-            display(msg);
-        } else if (msg.terminate()) {
-            terminate();
-        } else if (msg.isRecallMessage()) {
-            recallMessage(msg);
-        } else if (msg.isWiretapUserMessage()) {
-            wiretapUserRequest(msg);
-        } else if (msg.isWiretapGroupMessage()) {
-            wiretapGroupRequest(msg);
-        } else if (msg.isApproveMessage()) {
-            wiretapApprove(msg);
-        } else if (msg.isRejectMessage()) {
-            wiretapReject(msg);
-        } else if (msg.isSetRoleMessage()) {
-            setRole(msg);
-        } else if (msg.isLoggerMessage()) {
-            logger(msg);
-        } else if (msg.isPControlMessage()) {
-            pcontrol(msg);
-        } else if (msg.isHelpMessage()) {
-            help(msg);
+        BiConsumer<ClientRunnable, Message> handler = HANDLERS.get(msg);
+        if (handler != null) {
+            handler.accept(this, msg);
         }
     }
 
+    /**
+     * Wrap a handler which blocks on the database so that it runs on the client's
+     * lane of the DatabaseStage instead of the thread serving the connection.
+     *
+     * @param handler Handler making database calls.
+     * @return Handler handing the request over to the database stage.
+     */
+    static BiConsumer<ClientRunnable, Message> offloaded(BiConsumer<ClientRunnable, Message> handler) {
+        return (client, msg) -> client.runBlocking(() -> handler.accept(client, msg));
+    }
+
+    /**
+     * Run work which blocks on the database after the work this client already
+     * handed to the database stage. Once it completes, the client is woken up so
+     * that anything it queued for us is sent.
+     *
+     * @param work Work making database calls.
+     */
+    private void runBlocking(Runnable work) {
+        dbLane.execute(() -> {
+            try {
+                work.run();
+            } finally {
+                wakeUp();
+            }
+        });
+    }
+
+    /**
+     * Register the handler run for the requests with the given handle, replacing
+     * the one registered before.
+     *
+     * @param handle  Three letter handle of the message type.
+     * @param handler Handler run with the client which received the request.
+     */
+    static void registerHandler(String handle, BiConsumer<ClientRunnable, Message> handler) {
+        HANDLERS.register(handle, handler);
+    }
+
     /**
      * respond with the help msg
      * @param msg incoming msg request
@@ -724,6 +1066,7 @@ public class ClientRunnable implements Runnable {
                 "-RETRIEVE REQUESTS (retrieve all wiretap requests)\n" +
                 "-LOGGER (toggle the logger on/off)\n" +
                 "-PARENT_CONTROL [username](toogle the parent control on/off for particular user)\n" +
+                "-RELOAD_FILTER (reload the bad word list used by the parent control)\n" +
                 "-<username> ROLE <role> (set the role of the user: 0-admin, 1-user, 2-agency)\n" +
                 "-<agency> APPROVE <id> (approve certain wiretap request)\n" +
                 "-<agency> APPROVE * (approve all wiretap requests for the agency)\n" +
@@ -757,6 +1100,35 @@ public class ClientRunnable implements Runnable {
     private void wiretapUserRequest(Message msg) {
         db.requestWiretap(msg.getSender(), msg.getReceiver(), 0, Integer.parseInt(msg.getText()));
     }
+    /**
+     * Role of the signed-in user, as held by its profile
+     * @return the role id (0 for admins)
+     */
+    private int role() {
+        UserProfiles.Handle handle = profile.get();
+        UserProfile current = handle == null ? null : handle.get();
+        return current != null ? current.getRole() : db.getUserRole(getName());
+    }
+
+    /**
+     * Whether parental control is on for the signed-in user
+     * @return true if the messages this client receives are filtered; false if
+     * it has not signed in
+     */
+    boolean isControlled() {
+        UserProfiles.Handle handle = profile.get();
+        UserProfile current = handle == null ? null : handle.get();
+        return current != null && current.isControlled();
+    }
+
+    /**
+     * Whether the signed-in user is an admin
+     * @return true for admins
+     */
+    private boolean isAdmin() {
+        return role() == UserProfile.ROLE_ADMIN;
+    }
+
     /**
      * respond wiretap request
      * @param msg incoming request
@@ -769,7 +1141,7 @@ public class ClientRunnable implements Runnable {
      * @param msg incoming request
      */
     private void setRole(Message msg) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             switch (msg.getText()) {
                 case "user":
                     db.updateUserRole(msg.getReceiver(), 1);
@@ -799,7 +1171,7 @@ public class ClientRunnable implements Runnable {
      */
     private void logger(Message msg) {
         Level level = Logger.getRootLogger().getLevel();
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             if (level == Level.DEBUG) {
                 Logger.getRootLogger().setLevel(Level.OFF);
             } else if (level == Level.OFF) {
@@ -810,18 +1182,28 @@ public class ClientRunnable implements Runnable {
 
         }
     }
+    /**
+     * respond request to reload the bad word list
+     * @param msg incoming request
+     */
+    private void reloadFilter(Message msg) {
+        String text;
+        if (isAdmin()) {
+            text = "Parent control now filters " + ParentControl.getInstance().reload() + " bad words";
+        } else {
+            text = "You are not permitted to reload the bad word list";
+        }
+        Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, msg.getSender(), text), msg.getSender());
+    }
+
     /**
      * respond parent control request
      * @param msg incoming request
      */
     private void pcontrol(Message msg) {
-        if (db.getUserRole(this.getName()) == 0) {
-            int control = db.getControl(msg.getReceiver());
-            if (control == 1) {
-                control = 0;
-            } else {
-                control = 1;
-            }
+        if (isAdmin()) {
+            // The receiver's profile holds the flag if it is signed in.
+            int control = db.isControlled(msg.getReceiver()) ? 0 : 1;
             db.setControl(msg.getReceiver(), control);
         } else {
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, msg.getSender(), "You are not permitted to set parrent controll"), msg.getSender());
@@ -833,7 +1215,7 @@ public class ClientRunnable implements Runnable {
      * @param msg incoming request
      */
     private void wiretapApprove(Message msg) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             if (msg.getText().equals("*")) {
                 db.setWireTap(msg.getSender(), msg.getReceiver(), 0);
             } else {
@@ -851,7 +1233,7 @@ public class ClientRunnable implements Runnable {
      * @param msg incoming request
      */
     private void wiretapReject(Message msg) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             db.deleteWiretapRequest(Integer.parseInt(msg.getText()));
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, msg.getReceiver(), "Your wiretap request is rejected"), msg.getReceiver());
 
@@ -881,12 +1263,16 @@ public class ClientRunnable implements Runnable {
         for (String agency : agencyList) {
             String wiretapMessageAppender = "[ >> " + msg.getReceiver() + " ] " + msg.getText();
             msg.setText(wiretapMessageAppender);
-            db.storeMessageIndividual(msg.getSender(), agency, msg.getText(), db.retrieve(msg.getSender(), ADDRESS), db.retrieve(agency, ADDRESS));
-            Prattle.directMessage(msg, agency);
+            List<String> missed = deliver(msg, Collections.singletonList(agency));
+            db.storeMessageIndividual(msg.getSender(), agency, msg.getText(), db.ipOf(msg.getSender()), db.ipOf(agency),
+                    missed);
+            Prattle.inboxChanged(missed);
         }
-        db.storeMessageIndividual(msg.getSender(), msg.getReceiver(), msg.getText(), db.retrieve(msg.getSender(), ADDRESS), db.retrieve(msg.getReceiver(), ADDRESS));
         // Send message to original receiver
-        Prattle.directMessage(msg, msg.getReceiver());
+        List<String> missed = deliver(msg, Collections.singletonList(msg.getReceiver()));
+        db.storeMessageIndividual(msg.getSender(), msg.getReceiver(), msg.getText(), db.ipOf(msg.getSender()), db.ipOf(msg.getReceiver()),
+                missed);
+        Prattle.inboxChanged(missed);
 
     }
 
@@ -901,7 +1287,9 @@ public class ClientRunnable implements Runnable {
         if (db.checkGroup(group) && db.isGroupMember(group, getName())) {
             List<String> users = db.retrieveGroupMembers(group);
             Set<String> agencyList = new HashSet<>();
-            db.storeMessageGroup(msg.getSender(), msg.getReceiver(), msg.getText(), db.retrieve(msg.getSender(), ADDRESS), null);
+            List<String> missed = deliver(msg, users);
+            db.storeMessageGroup(msg.getSender(), msg.getReceiver(), msg.getText(), db.ipOf(msg.getSender()), null, missed);
+            Prattle.inboxChanged(missed);
 
             // check if the group is being wire tapped
             if (db.isUserOrGroupWiretapped(group, 1)) {
@@ -912,15 +1300,13 @@ public class ClientRunnable implements Runnable {
             if (db.isUserOrGroupWiretapped(msg.getSender(), 0)) {
                 agencyList.addAll(db.getAgencyList(msg.getSender(), 0, 0));
             }
-            for (String user : users) {
-                Prattle.directMessage(msg, user);
-            }
             for (String agency : agencyList) {
                 String wiretapMessageAppender = "[ >> " + msg.getReceiver() + " ] " + msg.getText();
                 msg.setText(wiretapMessageAppender);
-                db.storeMessageIndividual(msg.getSender(), agency, msg.getText(), db.retrieve(msg.getSender(), ADDRESS), db.retrieve(msg.getReceiver(), ADDRESS));
-
-                Prattle.directMessage(msg, agency);
+                List<String> agencyMissed = deliver(msg, Collections.singletonList(agency));
+                db.storeMessageIndividual(msg.getSender(), agency, msg.getText(), db.ipOf(msg.getSender()), db.ipOf(msg.getReceiver()),
+                        agencyMissed);
+                Prattle.inboxChanged(agencyMissed);
             }
         }
     }
@@ -944,8 +1330,12 @@ public class ClientRunnable implements Runnable {
                     Prattle.broadcastMessage(Message.makeQuitMessage(name));
                 } else {
                     if (msg.getText() == null || msg.getText().trim().equals("")) return;
-                    db.storeMessageBroadcast(getName(), msg.getText(), db.retrieve(msg.getSender(), ADDRESS), null);
-                    Prattle.broadcastMessage(msg);
+                    // Keep the broadcast in order with the other requests on the database stage.
+                    runBlocking(() -> {
+                        List<String> missed = Prattle.broadcastMessage(msg);
+                        db.storeMessageBroadcast(getName(), msg.getText(), db.ipOf(msg.getSender()), null, missed);
+                        Prattle.inboxChanged(missed);
+                    });
                 }
             }
         } else {
@@ -971,7 +1361,9 @@ public class ClientRunnable implements Runnable {
      */
     private void delete() {
         db.delete(getName());
-        this.terminateClient();
+        // Leave closing the session to the thread running the client, as for BYE.
+        terminate();
+        wakeUp();
     }
 
     /**
@@ -1056,7 +1448,7 @@ public class ClientRunnable implements Runnable {
      * @return true if successful, flase otherwise
      */
     private boolean retrieveDate(String text) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             String content = text.split(DATE)[1];
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(),
                     String.valueOf(db.getAllMessagesDeliveredAtSpecificDate(java.sql.Date.valueOf(content)))), getName());
@@ -1072,7 +1464,7 @@ public class ClientRunnable implements Runnable {
      * @return true if successful, flase otherwise
      */
     private boolean retrieveReceiver(String text) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             String content = text.split(RECEIVER)[1];
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(),
                     String.valueOf(db.getAllMessagesReceivedByReceiver(content))), getName());
@@ -1088,7 +1480,7 @@ public class ClientRunnable implements Runnable {
      * @return true if successful, flase otherwise
      */
     private boolean retrieveSender(String text) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             String content = text.split(SENDER)[1];
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(),
                     String.valueOf(db.getAllMessagesSendBySender(content))), getName());
@@ -1104,7 +1496,7 @@ public class ClientRunnable implements Runnable {
      * @return true if successful, flase otherwise
      */
     private boolean retrieveContent(String text) {
-        if (db.getUserRole(this.getName()) == 0) {
+        if (isAdmin()) {
             String content = text.split(CONTENT)[1];
             Prattle.directMessage(Message.makeDirectMessage(Prattle.SERVER_NAME, getName(),
                     String.valueOf(db.getAllMessageBasedOnContent(content))), getName());
@@ -1194,7 +1586,7 @@ public class ClientRunnable implements Runnable {
      * @return true if successful, false otherwise
      */
     private boolean retireveRole(){
-        int role = db.getUserRole(getName());
+        int role = role();
         String result;
         switch(role){
             case(0): result="admin";break;
@@ -1280,6 +1672,97 @@ public class ClientRunnable implements Runnable {
         runnableMe = future;
     }
 
+    /**
+     * Store the dispatcher which runs this client whenever it has work to do.
+     *
+     * @param dispatcher Dispatcher to be told when messages are queued for us.
+     */
+    void setDispatcher(ClientDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Try to claim this client for a dispatcher worker. If the client is already
+     * running, another pass is requested instead.
+     *
+     * @return True if the caller now owns the client and must run it.
+     */
+    boolean claimDispatch() {
+        while (true) {
+            int state = dispatchState.get();
+            if (state == DISPATCH_IDLE) {
+                if (dispatchState.compareAndSet(DISPATCH_IDLE, DISPATCH_RUNNING)) {
+                    return true;
+                }
+            } else if (state == DISPATCH_RERUN
+                    || dispatchState.compareAndSet(DISPATCH_RUNNING, DISPATCH_RERUN)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Give up the claim taken in claimDispatch, unless another pass was requested
+     * while we were running.
+     *
+     * @return True if the client was released; false if it must be run again.
+     */
+    boolean releaseDispatch() {
+        if (dispatchState.compareAndSet(DISPATCH_RUNNING, DISPATCH_IDLE)) {
+            return true;
+        }
+        dispatchState.set(DISPATCH_RUNNING);
+        return false;
+    }
+
+    /**
+     * Get the channel over which we talk to this client.
+     *
+     * @return SocketChannel of this client.
+     */
+    SocketChannel getChannel() {
+        return socket;
+    }
+
+    /**
+     * Return if messages have been read from the client but not yet processed.
+     *
+     * @return True if there is parsed input waiting for this client.
+     */
+    boolean hasPendingInput() {
+        return input.hasBufferedMessage();
+    }
+
+    /**
+     * Return if output queued for this client is still waiting for its socket to
+     * become writable.
+     *
+     * @return True if some output could not be written yet.
+     */
+    boolean hasPendingOutput() {
+        return output.hasPendingOutput();
+    }
+
+    /**
+     * Block until more input arrives from this client. Only used when the
+     * channel is blocking and read by a thread dedicated to the connection.
+     *
+     * @return False once the client has closed its end of the connection
+     * @throws IOException Exception thrown if the channel cannot be read
+     */
+    boolean awaitInput() throws IOException {
+        return input.readMessages();
+    }
+
+    /**
+     * Return if the connection with this client has been shut down.
+     *
+     * @return True once the client has been terminated.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
     /**
      * terminate a client if they logout
      */
@@ -1304,10 +1787,21 @@ public class ClientRunnable implements Runnable {
             LOGGER.info("unable to terminate");
 
         } finally {
+            closed = true;
+            // Only the first termination closes the profile.
+            if (profile.getAndSet(null) != null) {
+                db.closeProfile(getName());
+            }
+            inactivityTimeout.cancel();
+            if (responseTimeout != null) {
+                responseTimeout.cancel();
+            }
             // Remove the client from our client listing.
             Prattle.removeClient(this);
             // And remove the client from our client pool.
-            runnableMe.cancel(false);
+            if (runnableMe != null) {
+                runnableMe.cancel(false);
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,876 @@
+package edu.northeastern.ccs.im.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of database connections shared by the DAOs, so that queries of
+ * different clients run in parallel on their own MySQL sessions instead of
+ * queueing on a single one.
+ * <p>
+ * The DAOs keep using a plain {@link Connection}: the one returned by
+ * {@link #getConnection()} leases a pooled connection to the calling thread
+ * whenever a statement is created, and gives it back once the thread has closed
+ * all its statements. Statements nested on one thread thus share one connection
+ * and cannot starve the pool.
+ * <p>
+ * Connections left idle for a while are validated before they are leased again,
+ * connections which failed are thrown away, and connections idle for longer
+ * than the idle timeout are closed by {@link #evictIdle()}.
+ * <p>
+ * Each pooled connection keeps the statements prepared on it, keyed by their
+ * SQL text: preparing the same SQL again on that connection hands back the
+ * statement prepared the first time, with its parameters cleared, instead of
+ * having the database parse and plan it again.
+ */
+final class ConnectionPool {
+
+    /**
+     * Opens new connections to the database.
+     */
+    @FunctionalInterface
+    interface ConnectionFactory {
+        /**
+         * Open a new connection.
+         *
+         * @return The new connection.
+         * @throws SQLException Exception thrown if the database cannot be reached.
+         */
+        Connection open() throws SQLException;
+    }
+
+    /**
+     * Default number of connections in the pool.
+     */
+    static final int DEFAULT_SIZE = 10;
+
+    /**
+     * Default longest time a thread waits for a connection, in ms.
+     */
+    static final int DEFAULT_BORROW_TIMEOUT = 5000;
+
+    /**
+     * Default time after which an unused connection is closed, in ms.
+     */
+    static final int DEFAULT_IDLE_TIMEOUT = 300000;
+
+    /**
+     * Default number of prepared statements kept per connection.
+     */
+    static final int DEFAULT_STATEMENT_CACHE = 64;
+
+    /**
+     * A connection unused for this long is checked before it is leased again.
+     */
+    private static final long VALIDATE_AFTER_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Longest time a validity check may take, in seconds.
+     */
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    /**
+     * After failing to open a connection, how long borrowers fail right away
+     * instead of trying again.
+     */
+    private static final long RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    /**
+     * SQL states in this class mean the connection itself is unusable.
+     */
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    private final ConnectionFactory factory;
+
+    private final int maxSize;
+
+    private final long borrowTimeoutNanos;
+
+    private final long idleTimeoutNanos;
+
+    private final int statementCacheSize;
+
+    private final LongSupplier clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    /**
+     * Connections which are not leased, most recently used first. Guarded by lock.
+     */
+    private final Deque<Pooled> idle = new ArrayDeque<>();
+
+    /**
+     * Connections open or being opened, leased or not. Guarded by lock.
+     */
+    private int total;
+
+    private boolean closed;
+
+    /**
+     * Next run of the idle eviction, cancelled when the pool is closed. Guarded by lock.
+     */
+    private TimingWheel.Timeout eviction;
+
+    /**
+     * When opening a connection last failed, and why. Guarded by lock.
+     */
+    private long lastFailure;
+    private SQLException lastFailureCause;
+
+    /**
+     * Counters, guarded by lock.
+     */
+    private long borrowed;
+    private long waited;
+    private long timedOut;
+    private long waitNanos;
+    private long maxWaitNanos;
+    private long created;
+    private long discarded;
+
+    /**
+     * Statements found in, and missing from, the connections' caches.
+     */
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    /**
+     * Connection leased to each thread, if any.
+     */
+    private final ThreadLocal<Lease> leases = new ThreadLocal<>();
+
+    /**
+     * Connection handed to the DAOs.
+     */
+    private final Connection shared;
+
+    /**
+     * A connection opened by the pool, with the statements prepared on it. Only
+     * the thread holding its lease uses it.
+     */
+    private final class Pooled {
+        final Connection connection;
+        long lastUsed;
+
+        /**
+         * Statements keyed by SQL text, least recently used first.
+         */
+        final Map<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        Pooled(Connection connection, long lastUsed) {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * A statement kept open for reuse.
+     */
+    private static final class CachedStatement {
+        final PreparedStatement statement;
+
+        /**
+         * Whether a caller is using the statement.
+         */
+        boolean inUse;
+
+        /**
+         * Whether the statement was dropped from the cache, to be closed once it
+         * is no longer in use.
+         */
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly(statement);
+            }
+        }
+    }
+
+    /**
+     * A connection leased to one thread, with the number of its statements still
+     * open.
+     */
+    final class Lease {
+        private final Pooled pooled;
+        private int depth;
+        private boolean broken;
+        private boolean returned;
+
+        private Lease(Pooled pooled) {
+            this.pooled = pooled;
+        }
+
+        /**
+         * Return the leased connection.
+         *
+         * @return Connection to the database.
+         */
+        Connection getConnection() {
+            return pooled.connection;
+        }
+
+        /**
+         * Note that the connection failed, so it is closed rather than reused.
+         */
+        void markBroken() {
+            broken = true;
+        }
+
+        /**
+         * Give up one use of the lease; the connection goes back to the pool with
+         * the last one.
+         */
+        void release() {
+            if (returned || --depth > 0) {
+                return;
+            }
+            returned = true;
+            if (leases.get() == this) {
+                leases.remove();
+            }
+            giveBack(pooled, broken);
+        }
+    }
+
+    /**
+     * Create a pool which opens connections when they are first needed.
+     *
+     * @param factory         Opens the connections.
+     * @param maxSize         Largest number of connections open at once.
+     * @param borrowTimeoutMs Longest time a thread waits for a connection.
+     * @param idleTimeoutMs   Time after which an unused connection is closed.
+     */
+    ConnectionPool(ConnectionFactory factory, int maxSize, long borrowTimeoutMs, long idleTimeoutMs) {
+        this(factory, maxSize, borrowTimeoutMs, idleTimeoutMs, System::nanoTime);
+    }
+
+    /**
+     * Create a pool reading time from the given clock.
+     *
+     * @param factory         Opens the connections.
+     * @param maxSize         Largest number of connections open at once.
+     * @param borrowTimeoutMs Longest time a thread waits for a connection.
+     * @param idleTimeoutMs   Time after which an unused connection is closed.
+     * @param clock           Monotonic clock, in ns.
+     */
+    ConnectionPool(ConnectionFactory factory, int maxSize, long borrowTimeoutMs, long idleTimeoutMs,
+                   LongSupplier clock) {
+        this(factory, maxSize, borrowTimeoutMs, idleTimeoutMs, DEFAULT_STATEMENT_CACHE, clock);
+    }
+
+    /**
+     * Create a pool reading time from the given clock.
+     *
+     * @param factory            Opens the connections.
+     * @param maxSize            Largest number of connections open at once.
+     * @param borrowTimeoutMs    Longest time a thread waits for a connection.
+     * @param idleTimeoutMs      Time after which an unused connection is closed.
+     * @param statementCacheSize Largest number of statements kept per connection
+     *                           (0 to close every statement).
+     * @param clock              Monotonic clock, in ns.
+     */
+    ConnectionPool(ConnectionFactory factory, int maxSize, long borrowTimeoutMs, long idleTimeoutMs,
+                   int statementCacheSize, LongSupplier clock) {
+        this.factory = factory;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.maxSize = Math.max(1, maxSize);
+        this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, borrowTimeoutMs));
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleTimeoutMs));
+        this.clock = clock;
+        shared = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new SharedConnection());
+    }
+
+    /**
+     * Create a pool configured through the system properties, whose idle
+     * connections are evicted on the shared timing wheel.
+     *
+     * @param factory Opens the connections.
+     * @return A new pool.
+     */
+    static ConnectionPool fromProperties(ConnectionFactory factory) {
+        ConnectionPool pool = new ConnectionPool(factory,
+                Integer.getInteger(ServerConstants.DB_POOL_SIZE_PROPERTY, DEFAULT_SIZE),
+                Integer.getInteger(ServerConstants.DB_POOL_TIMEOUT_PROPERTY, DEFAULT_BORROW_TIMEOUT),
+                Integer.getInteger(ServerConstants.DB_POOL_IDLE_PROPERTY, DEFAULT_IDLE_TIMEOUT),
+                Integer.getInteger(ServerConstants.DB_STATEMENT_CACHE_PROPERTY, DEFAULT_STATEMENT_CACHE),
+                System::nanoTime);
+        pool.scheduleEviction(TimingWheel.getInstance());
+        return pool;
+    }
+
+    /**
+     * Return the connection through which the DAOs run their statements. Each
+     * statement it creates runs on the connection leased to the calling thread.
+     * Closing it does nothing; the pool is closed through {@link #close()}.
+     *
+     * @return Connection shared by every thread.
+     */
+    Connection getConnection() {
+        return shared;
+    }
+
+    /**
+     * Lease a connection to the calling thread, or take one more use of the
+     * connection it already holds. Every call must be matched by a call to
+     * {@link Lease#release()}.
+     *
+     * @return The calling thread's lease.
+     * @throws SQLException Exception thrown if no connection could be opened, or
+     *                      none was released before the borrow timeout.
+     */
+    Lease borrow() throws SQLException {
+        Lease lease = leases.get();
+        if (lease == null || lease.returned) {
+            lease = new Lease(take());
+            leases.set(lease);
+        }
+        lease.depth++;
+        return lease;
+    }
+
+    /**
+     * Close the connections left unused for longer than the idle timeout.
+     *
+     * @return Number of connections closed.
+     */
+    int evictIdle() {
+        List<Pooled> expired = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = clock.getAsLong();
+            Iterator<Pooled> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                Pooled pooled = it.next();
+                if (now - pooled.lastUsed < idleTimeoutNanos) {
+                    // The rest were used more recently.
+                    break;
+                }
+                it.remove();
+                expired.add(pooled);
+            }
+            total -= expired.size();
+            discarded += expired.size();
+            if (!expired.isEmpty()) {
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Pooled pooled : expired) {
+            closeQuietly(pooled.connection);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Close the idle connections and refuse new leases. Leased connections are
+     * closed as they are given back.
+     */
+    void close() {
+        List<Pooled> open;
+        lock.lock();
+        try {
+            closed = true;
+            if (eviction != null) {
+                eviction.cancel();
+                eviction = null;
+            }
+            open = new ArrayList<>(idle);
+            idle.clear();
+            total -= open.size();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Pooled pooled : open) {
+            closeQuietly(pooled.connection);
+        }
+    }
+
+    /**
+     * Return the number of connections open or being opened.
+     *
+     * @return Size of the pool.
+     */
+    int getSize() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of connections waiting to be leased.
+     *
+     * @return Number of idle connections.
+     */
+    int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of threads which had to wait for a connection to be
+     * released.
+     *
+     * @return Number of borrows which waited.
+     */
+    long getWaitCount() {
+        lock.lock();
+        try {
+            return waited;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of borrows which gave up waiting for a connection.
+     *
+     * @return Number of borrow timeouts.
+     */
+    long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timedOut;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of statements taken from the connections' caches.
+     *
+     * @return Number of cache hits.
+     */
+    long getStatementHits() {
+        return statementHits.sum();
+    }
+
+    /**
+     * Return the number of statements which had to be prepared.
+     *
+     * @return Number of cache misses.
+     */
+    long getStatementMisses() {
+        return statementMisses.sum();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "ConnectionPool[size=" + total + ", idle=" + idle.size() + ", max=" + maxSize
+                    + ", borrowed=" + borrowed + ", waited=" + waited + ", timedOut=" + timedOut
+                    + ", maxWaitMs=" + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)
+                    + ", totalWaitMs=" + TimeUnit.NANOSECONDS.toMillis(waitNanos)
+                    + ", created=" + created + ", discarded=" + discarded
+                    + ", statementHits=" + statementHits.sum() + ", statementMisses=" + statementMisses.sum() + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evict idle connections now and then, for as long as the pool is open.
+     */
+    void scheduleEviction(TimingWheel wheel) {
+        long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos) / 2);
+        scheduleEviction(wheel, new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+                scheduleEviction(wheel, this, period);
+            }
+        }, period);
+    }
+
+    /**
+     * Put the next run of the eviction on the wheel, unless the pool was closed.
+     */
+    private void scheduleEviction(TimingWheel wheel, Runnable task, long period) {
+        lock.lock();
+        try {
+            if (!closed) {
+                eviction = wheel.schedule(task, period, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take an idle connection which is still valid, open a new one if the pool
+     * is not full, or wait for one to be given back.
+     */
+    private Pooled take() throws SQLException {
+        long start = clock.getAsLong();
+        boolean hadToWait = false;
+        while (true) {
+            Pooled candidate = null;
+            boolean open = false;
+            lock.lock();
+            try {
+                long remaining = borrowTimeoutNanos - (clock.getAsLong() - start);
+                while (!closed && idle.isEmpty() && total >= maxSize) {
+                    if (remaining <= 0) {
+                        timedOut++;
+                        throw new SQLException("Timed out waiting for a database connection: " + this);
+                    }
+                    hadToWait = true;
+                    try {
+                        remaining = released.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted waiting for a database connection", e);
+                    }
+                }
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    candidate = idle.pollFirst();
+                } else if (lastFailureCause != null && clock.getAsLong() - lastFailure < RETRY_DELAY_NANOS) {
+                    throw new SQLException("Database unavailable", lastFailureCause);
+                } else {
+                    total++;
+                    open = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            Pooled pooled = open ? create() : validate(candidate);
+            if (pooled != null) {
+                lock.lock();
+                try {
+                    long wait = clock.getAsLong() - start;
+                    borrowed++;
+                    if (hadToWait) {
+                        waited++;
+                        waitNanos += wait;
+                        maxWaitNanos = Math.max(maxWaitNanos, wait);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return pooled;
+            }
+        }
+    }
+
+    private Pooled create() throws SQLException {
+        try {
+            Connection connection = factory.open();
+            lock.lock();
+            try {
+                created++;
+                lastFailureCause = null;
+            } finally {
+                lock.unlock();
+            }
+            return new Pooled(connection, clock.getAsLong());
+        } catch (SQLException | RuntimeException e) {
+            lock.lock();
+            try {
+                total--;
+                lastFailure = clock.getAsLong();
+                lastFailureCause = e instanceof SQLException ? (SQLException) e : new SQLException(e);
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Return the idle connection if it may be leased, or close it and return
+     * null.
+     */
+    private Pooled validate(Pooled pooled) {
+        boolean valid;
+        try {
+            valid = clock.getAsLong() - pooled.lastUsed < VALIDATE_AFTER_NANOS
+                    || pooled.connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            valid = false;
+        }
+        if (valid) {
+            return pooled;
+        }
+        discard(pooled);
+        return null;
+    }
+
+    private void giveBack(Pooled pooled, boolean broken) {
+        if (broken) {
+            discard(pooled);
+            return;
+        }
+        lock.lock();
+        try {
+            if (!closed) {
+                pooled.lastUsed = clock.getAsLong();
+                idle.addFirst(pooled);
+                released.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(pooled);
+    }
+
+    private void discard(Pooled pooled) {
+        lock.lock();
+        try {
+            total--;
+            discarded++;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(pooled.connection);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            LOGGER.info("Caught SQL Exception:" + e.toString());
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isConnectionFailure(Throwable e) {
+        String state = e instanceof SQLException ? ((SQLException) e).getSQLState() : null;
+        return state != null && state.startsWith(CONNECTION_EXCEPTION_CLASS);
+    }
+
+    /**
+     * Runs the calls made on the shared connection on the calling thread's lease.
+     */
+    private final class SharedConnection implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    return null;
+                case "isClosed":
+                    return isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return ConnectionPool.this.toString();
+                default:
+                    break;
+            }
+            Lease lease = borrow();
+            boolean keep = false;
+            try {
+                String key = statementKey(method, args);
+                if (key != null) {
+                    keep = true;
+                    return prepareCached(lease, key, method, args);
+                }
+                Object result = ConnectionPool.invoke(lease.getConnection(), method, args);
+                if (result instanceof Statement) {
+                    // The statement holds the lease until it is closed.
+                    keep = true;
+                    return wrap((Statement) result, lease, method.getReturnType());
+                }
+                return result;
+            } catch (Throwable e) {
+                if (isConnectionFailure(e)) {
+                    lease.markBroken();
+                }
+                throw e;
+            } finally {
+                if (!keep) {
+                    lease.release();
+                }
+            }
+        }
+
+        /**
+         * Return the key under which the statement created by the call is cached,
+         * or null if it is not cached.
+         */
+        private String statementKey(Method method, Object[] args) {
+            if (statementCacheSize == 0 || !method.getName().equals("prepareStatement")) {
+                return null;
+            }
+            Class<?>[] types = method.getParameterTypes();
+            if (types.length == 1) {
+                return (String) args[0];
+            }
+            if (types.length == 2 && types[1] == int.class) {
+                // prepareStatement(sql, autoGeneratedKeys)
+                return args[0] + "\u0000" + args[1];
+            }
+            return null;
+        }
+
+        private Object prepareCached(Lease lease, String key, Method method, Object[] args) throws Throwable {
+            Map<String, CachedStatement> statements = lease.pooled.statements;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementHits.increment();
+            } else {
+                statementMisses.increment();
+                PreparedStatement statement = (PreparedStatement) ConnectionPool.invoke(lease.getConnection(), method, args);
+                if (cached != null) {
+                    // The same SQL is already running further up this thread's stack.
+                    return wrap(statement, lease, null, PreparedStatement.class);
+                }
+                cached = new CachedStatement(statement);
+                statements.put(key, cached);
+            }
+            cached.inUse = true;
+            return wrap(cached.statement, lease, cached, PreparedStatement.class);
+        }
+
+        private Object wrap(Statement statement, Lease lease, Class<?> type) {
+            return wrap(statement, lease, null, type);
+        }
+
+        private Object wrap(Statement statement, Lease lease, CachedStatement cached, Class<?> type) {
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type},
+                    new LeasedStatement(statement, lease, cached));
+        }
+    }
+
+    /**
+     * Gives the lease back when the statement is closed, keeping the statement
+     * open if it is cached.
+     */
+    private final class LeasedStatement implements InvocationHandler {
+        private final Statement statement;
+        private final Lease lease;
+        private final CachedStatement cached;
+        private boolean closed;
+
+        LeasedStatement(Statement statement, Lease lease, CachedStatement cached) {
+            this.statement = statement;
+            this.lease = lease;
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        try {
+                            if (cached == null) {
+                                statement.close();
+                            } else {
+                                recycle();
+                            }
+                        } finally {
+                            lease.release();
+                        }
+                    }
+                    return null;
+                case "getConnection":
+                    return shared;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            try {
+                return ConnectionPool.invoke(statement, method, args);
+            } catch (Throwable e) {
+                if (isConnectionFailure(e)) {
+                    lease.markBroken();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Make the cached statement ready for its next user, or close it if it
+         * was evicted or cannot be reset.
+         */
+        private void recycle() {
+            cached.inUse = false;
+            if (cached.evicted) {
+                closeQuietly(statement);
+                return;
+            }
+            try {
+                ((PreparedStatement) statement).clearParameters();
+            } catch (SQLException e) {
+                lease.pooled.statements.values().remove(cached);
+                closeQuietly(statement);
+            }
+        }
+    }
+}
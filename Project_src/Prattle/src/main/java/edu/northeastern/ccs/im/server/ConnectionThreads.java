@@ -0,0 +1,139 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * Serves every client from a thread of its own which blocks reading the
+ * client's channel and runs the client whenever input arrives. Slow calls made
+ * while handling a request (e.g. to the database) therefore only hold up the
+ * client which made them. Clients whose deadlines pass while they wait for
+ * input are run by the {@link TimingWheel}.
+ * <p>
+ * Virtual threads are used when the running JVM provides them; otherwise each
+ * connection gets an ordinary platform thread.
+ */
+class ConnectionThreads extends ClientDispatcher {
+
+    /**
+     * Threads on which the connections are read and the clients are run.
+     */
+    private final ExecutorService threads;
+
+    /**
+     * Clients currently being served.
+     */
+    private final Set<ClientRunnable> sessions;
+
+    /**
+     * Create a new set of connection threads.
+     */
+    ConnectionThreads() {
+        this(newThreadPerTaskExecutor());
+    }
+
+    /**
+     * Create a new set of connection threads started by the given executor, which
+     * must start a new thread for every task.
+     *
+     * @param threads Executor on which connections are served.
+     */
+    private ConnectionThreads(ExecutorService threads) {
+        super(threads);
+        this.threads = threads;
+        sessions = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task when the JVM supports
+     * them (Java 21 and later), falling back to a platform thread per task.
+     *
+     * @return Executor starting a new thread for each task.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.info("Virtual threads are not available, using platform threads: " + e.toString());
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Start serving the given client, whose channel must be blocking, on a thread
+     * of its own.
+     *
+     * @param client Newly accepted client.
+     */
+    void serve(ClientRunnable client) {
+        client.setDispatcher(this);
+        sessions.add(client);
+        threads.execute(() -> readLoop(client));
+    }
+
+    /**
+     * Block reading the client's channel, running the client whenever new input
+     * has been read, until the connection is closed.
+     *
+     * @param client Client owned by this thread.
+     */
+    private void readLoop(ClientRunnable client) {
+        boolean open = true;
+        try {
+            while (open && !client.isClosed()) {
+                open = client.awaitInput();
+                runNow(client);
+            }
+        } catch (ClosedChannelException e) {
+            // The client was terminated while we waited for input.
+            LOGGER.info("Connection closed: " + e.toString());
+        } catch (IOException e) {
+            LOGGER.info("Caught Exception: " + e.toString());
+            client.terminateClient();
+        } finally {
+            sessions.remove(client);
+        }
+    }
+
+    /**
+     * Once a client has been run, run it again if it still holds parsed input, or
+     * make sure the reading thread wakes up if the client has been terminated.
+     *
+     * @param client Client which has just been run.
+     */
+    @Override
+    protected void afterRun(ClientRunnable client) {
+        if (client.isClosed()) {
+            try {
+                client.getChannel().close();
+            } catch (IOException e) {
+                LOGGER.info("Caught Exception: " + e.toString());
+            }
+        } else if (client.hasPendingInput()) {
+            dispatch(client);
+        }
+    }
+
+    /**
+     * Return the number of clients currently being served.
+     *
+     * @return Number of live sessions.
+     */
+    int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Stop accepting new connections.
+     */
+    void shutdown() {
+        threads.shutdown();
+    }
+}
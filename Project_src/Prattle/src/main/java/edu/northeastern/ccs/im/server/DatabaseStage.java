@@ -0,0 +1,129 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * Pool of threads on which requests that block on the database (storing
+ * messages, retrieve queries, admin commands) are run, so that the threads
+ * reading and writing sockets never wait for a query. Its size is set through
+ * the {@link ServerConstants#DB_THREADS_PROPERTY} system property.
+ * <p>
+ * Each session hands its work to a {@link Lane}: the work of one session runs in
+ * the order it was handed over and never on two threads at once, while the
+ * lanes of different sessions share the pool.
+ */
+final class DatabaseStage {
+
+    /**
+     * Default number of threads running database work.
+     */
+    static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Stage shared by every session, created on first use.
+     */
+    private static DatabaseStage instance;
+
+    /**
+     * Threads on which the work is run.
+     */
+    private final Executor threads;
+
+    /**
+     * Work of one session, run in order on the stage's threads.
+     */
+    final class Lane implements Executor {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Whether a thread of the pool has been asked to drain this lane.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Queue work to be run after the work already handed to this lane.
+         *
+         * @param task Work to be run on the stage's threads.
+         */
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    threads.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.info("Caught Exception: " + e.toString());
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.info("Caught Exception: " + e.toString());
+                }
+            }
+            scheduled.set(false);
+            // Work may have been queued after the last poll but before the flag was cleared.
+            schedule();
+        }
+    }
+
+    /**
+     * Create a stage running its work on the given threads.
+     *
+     * @param threads Executor on which the lanes are drained.
+     */
+    DatabaseStage(Executor threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Return the stage shared by every session.
+     *
+     * @return The shared stage.
+     */
+    static synchronized DatabaseStage getInstance() {
+        if (instance == null) {
+            int count = Math.max(1, Integer.getInteger(ServerConstants.DB_THREADS_PROPERTY, DEFAULT_THREADS));
+            instance = new DatabaseStage(newThreadPool(count));
+        }
+        return instance;
+    }
+
+    /**
+     * Create a new lane for one session.
+     *
+     * @return Empty lane.
+     */
+    Lane newLane() {
+        return new Lane();
+    }
+
+    private static ExecutorService newThreadPool(int count) {
+        AtomicInteger created = new AtomicInteger();
+        return Executors.newFixedThreadPool(count, task -> {
+            Thread thread = new Thread(task, "prattle-db-" + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
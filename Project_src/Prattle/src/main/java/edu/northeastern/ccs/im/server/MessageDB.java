@@ -8,6 +8,8 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -39,11 +41,26 @@ public class MessageDB {
      * @return true from user exists and sql operation is successful
      */
     public boolean storeMessageIndividual(String from, String to, String text, String senderIP, String receiverIP) {
+        return storeMessageIndividual(from, to, text, senderIP, receiverIP, Collections.<String>emptyList());
+    }
+
+    /**
+     * stores the messages for each user, and queues it for the recipients who are offline
+     * @param from user who sent the message
+     * @param to user who received the message
+     * @param text message sene from one user to other
+     * @param senderIP ip address of sender
+     * @param receiverIP ip address of receiver
+     * @param offline users to whom the message is delivered when they next sign in
+     * @return true from user exists and sql operation is successful
+     */
+    public boolean storeMessageIndividual(String from, String to, String text, String senderIP, String receiverIP,
+                                          Collection<String> offline) {
         int userID = sqlDB.getUserID(from);
         boolean flag = false;
         try {
             String sql = "INSERT INTO message_details (fromUser, toUser, IsMedia, IsGroupMsg, message, IsBroadcast, senderIP, receiverIP) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+            try (PreparedStatement pStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 pStatement.setInt(1, userID);
                 pStatement.setString(2, to);
                 pStatement.setBoolean(3, false);
@@ -54,6 +71,13 @@ public class MessageDB {
                 pStatement.setString(8,receiverIP);
                 int msgCount = pStatement.executeUpdate();
                 flag = (msgCount > 0);
+                if (flag && !offline.isEmpty()) {
+                    try (ResultSet keys = pStatement.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            queueForDelivery(connection, keys.getInt(1), offline);
+                        }
+                    }
+                }
             }
         } catch (SQLException e) {
             LOGGER.info("Caught SQL Exception:" + e.toString());
@@ -72,11 +96,26 @@ public class MessageDB {
      * @return true if users/groups exists and sql operation is successful
      */
     public boolean storeMessageGroup(String from, String group, String text, String senderIP, String receiverIP) {
+        return storeMessageGroup(from, group, text, senderIP, receiverIP, Collections.<String>emptyList());
+    }
+
+    /**
+     * stores the messages for a group, and queues it for the members who are offline
+     * @param from user who sent the message
+     * @param group group to which the message is sent
+     * @param text the messages sent by the user/users
+     * @param senderIP ip address of sender
+     * @param receiverIP ip address of receiver
+     * @param offline members to whom the message is delivered when they next sign in
+     * @return true if users/groups exists and sql operation is successful
+     */
+    public boolean storeMessageGroup(String from, String group, String text, String senderIP, String receiverIP,
+                                     Collection<String> offline) {
         int userID = sqlDB.getUserID(from);
         boolean flag = false;
         try {
             String sql = "INSERT INTO message_details (fromUser, toUser, IsMedia, IsGroupMsg, message, IsBroadcast, senderIP, receiverIP) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+            try (PreparedStatement pStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 pStatement.setInt(1, userID);
                 pStatement.setString(2, group);
                 pStatement.setBoolean(3, false);
@@ -87,6 +126,13 @@ public class MessageDB {
                 pStatement.setString(8,receiverIP);
                 int msgCount = pStatement.executeUpdate();
                 flag = (msgCount > 0);
+                if (flag && !offline.isEmpty()) {
+                    try (ResultSet keys = pStatement.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            queueForDelivery(connection, keys.getInt(1), offline);
+                        }
+                    }
+                }
             }
         } catch (SQLException e) {
             LOGGER.info("Caught SQL Exception:" + e.toString());
@@ -104,11 +150,25 @@ public class MessageDB {
      * @return true if the user exists and sql operation is successful
      */
     public boolean storeMessageBroadcast(String from, String text, String senderIP, String receiverIP) {
+        return storeMessageBroadcast(from, text, senderIP, receiverIP, Collections.<String>emptyList());
+    }
+
+    /**
+     * stores the broadcast messages, and queues it for the users who did not get it
+     * @param from user who sent the message
+     * @param text message sent by the user
+     * @param senderIP ip address of sender
+     * @param receiverIP ip address of receiver
+     * @param offline users to whom the message is delivered when they next read their inbox
+     * @return true if the user exists and sql operation is successful
+     */
+    public boolean storeMessageBroadcast(String from, String text, String senderIP, String receiverIP,
+                                         Collection<String> offline) {
         int userID = sqlDB.getUserID(from);
         boolean flag = false;
         try {
             String sql = "INSERT INTO message_details (fromUser, toUser, IsMedia, IsGroupMsg, message, IsBroadcast, senderIP, receiverIP) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+            try (PreparedStatement pStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
                 pStatement.setInt(1, userID);
                 pStatement.setString(2, "BROADCAST");
                 pStatement.setBoolean(3, false);
@@ -119,6 +179,13 @@ public class MessageDB {
                 pStatement.setString(8,receiverIP);
                 int msgCount = pStatement.executeUpdate();
                 flag = (msgCount > 0);
+                if (flag && !offline.isEmpty()) {
+                    try (ResultSet keys = pStatement.getGeneratedKeys()) {
+                        if (keys.next()) {
+                            queueForDelivery(connection, keys.getInt(1), offline);
+                        }
+                    }
+                }
             }
         } catch (SQLException e) {
             LOGGER.info("Caught SQL Exception:" + e.toString());
@@ -127,6 +194,224 @@ public class MessageDB {
         return flag;
     }
 
+    /**
+     * A message waiting to be stored by storeMessages.
+     */
+    static final class PendingMessage {
+        final String from;
+        final String to;
+        final String text;
+        final boolean group;
+        final boolean broadcast;
+        final String senderIP;
+        final String receiverIP;
+        /**
+         * Recipients who were offline when the message was sent
+         */
+        final Collection<String> offline;
+
+        PendingMessage(String from, String to, String text, boolean group, boolean broadcast,
+                       String senderIP, String receiverIP) {
+            this(from, to, text, group, broadcast, senderIP, receiverIP, Collections.<String>emptyList());
+        }
+
+        PendingMessage(String from, String to, String text, boolean group, boolean broadcast,
+                       String senderIP, String receiverIP, Collection<String> offline) {
+            this.from = from;
+            this.to = to;
+            this.text = text;
+            this.group = group;
+            this.broadcast = broadcast;
+            this.senderIP = senderIP;
+            this.receiverIP = receiverIP;
+            this.offline = offline;
+        }
+    }
+
+    /**
+     * stores a batch of messages with a single JDBC batch statement. The caller
+     * owns the connection and decides when the batch is committed.
+     * @param con connection on which the rows are inserted
+     * @param batch messages to be stored, in order
+     * @return number of rows inserted
+     * @throws SQLException if the batch could not be executed
+     */
+    int storeMessages(Connection con, List<PendingMessage> batch) throws SQLException {
+        String sql = "INSERT INTO message_details (fromUser, toUser, IsMedia, IsGroupMsg, message, IsBroadcast, senderIP, receiverIP) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pStatement = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            boolean queued = false;
+            for (PendingMessage msg : batch) {
+                queued |= !msg.offline.isEmpty();
+                pStatement.setInt(1, sqlDB.getUserID(msg.from));
+                pStatement.setString(2, msg.to);
+                pStatement.setBoolean(3, false);
+                pStatement.setBoolean(4, msg.group);
+                pStatement.setString(5, msg.text);
+                pStatement.setBoolean(6, msg.broadcast);
+                pStatement.setString(7, msg.senderIP);
+                pStatement.setString(8, msg.receiverIP);
+                pStatement.addBatch();
+            }
+            int stored = 0;
+            for (int count : pStatement.executeBatch()) {
+                // The driver may only know that a row was inserted, not how many.
+                stored += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+            }
+            if (queued) {
+                // The keys come back in the order the rows were added to the batch.
+                try (ResultSet keys = pStatement.getGeneratedKeys()) {
+                    Iterator<PendingMessage> messages = batch.iterator();
+                    while (keys.next() && messages.hasNext()) {
+                        PendingMessage msg = messages.next();
+                        if (!msg.offline.isEmpty()) {
+                            queueForDelivery(con, keys.getInt(1), msg.offline);
+                        }
+                    }
+                }
+            }
+            return stored;
+        }
+    }
+
+    /**
+     * creates the table of messages waiting for offline recipients, if it is missing.
+     * A row means the message has not been delivered to that user yet; rows are only
+     * ever looked up by user, so the primary key is the only index needed.
+     */
+    public void createInbox() {
+        String sql = "CREATE TABLE IF NOT EXISTS pending_delivery (userID INT NOT NULL, messageID INT NOT NULL, PRIMARY KEY (userID, messageID))";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            LOGGER.info("Caught SQL Exception:" + e.toString());
+        }
+    }
+
+    /**
+     * queues a stored message for the given users, who get it when they next sign in
+     * @param con connection on which the message was stored
+     * @param messageID id of the stored message
+     * @param users names of the recipients; unknown users are skipped
+     * @throws SQLException if the rows could not be inserted
+     */
+    private void queueForDelivery(Connection con, int messageID, Collection<String> users) throws SQLException {
+        String sql = "INSERT IGNORE INTO pending_delivery (userID, messageID) VALUES (?, ?)";
+        try (PreparedStatement pStatement = con.prepareStatement(sql)) {
+            boolean any = false;
+            for (String user : users) {
+                int userID = sqlDB.getUserID(user);
+                if (userID != UserIdentityCache.NO_ID) {
+                    pStatement.setInt(1, userID);
+                    pStatement.setInt(2, messageID);
+                    pStatement.addBatch();
+                    any = true;
+                }
+            }
+            if (any) {
+                pStatement.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * A stored message read back for delivery to its recipient.
+     */
+    static final class QueuedMessage {
+        final int messageID;
+        final String from;
+        final String text;
+        final boolean recalled;
+
+        QueuedMessage(int messageID, String from, String text, boolean recalled) {
+            this.messageID = messageID;
+            this.from = from;
+            this.text = text;
+            this.recalled = recalled;
+        }
+
+        /**
+         * @return the message as "fromUser:name,Message:text"
+         */
+        @Override
+        public String toString() {
+            return "fromUser:" + from + ",Message:" + text;
+        }
+    }
+
+    /**
+     * reads at most max of the messages queued for the user while offline, oldest first,
+     * with one lookup on the user's rows. The rows stay in the inbox until they are removed
+     * with {@link #removeQueuedMessages(String, Collection)}, so a message which could not
+     * be handed to the user is still there for the next read. Recalled messages are
+     * returned too, flagged, so their rows can be removed without delivering them.
+     *
+     * @param user name of the user
+     * @param max  most rows to read
+     * @param into collection to which the messages are added, in the order they were sent
+     * @return number of rows read; less than max once the inbox has no more
+     */
+    int readQueuedMessages(String user, int max, Collection<? super QueuedMessage> into) {
+        int userID = sqlDB.getUserID(user);
+        if (userID == UserIdentityCache.NO_ID) {
+            return 0;
+        }
+        int read = 0;
+        try {
+            String sql = "SELECT p.messageID, m.fromUser, m.message, m.isRecall FROM pending_delivery p"
+                    + " JOIN message_details m ON m.messageID = p.messageID WHERE p.userID = ? ORDER BY p.messageID LIMIT ?";
+            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+                pStatement.setInt(1, userID);
+                pStatement.setInt(2, max);
+                try (ResultSet rs = pStatement.executeQuery()) {
+                    while (rs.next()) {
+                        into.add(new QueuedMessage(rs.getInt("messageID"), sqlDB.getUsername(rs.getInt("fromUser")),
+                                rs.getString("message"), rs.getBoolean("isRecall")));
+                        read++;
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.info("Caught SQL Exception:" + e.toString());
+        }
+        return read;
+    }
+
+    /**
+     * removes the given messages from the user's inbox once they have been handed to the user
+     *
+     * @param user       name of the user
+     * @param messageIDs ids of the messages to remove
+     */
+    void removeQueuedMessages(String user, Collection<Integer> messageIDs) {
+        int userID = sqlDB.getUserID(user);
+        if (userID == UserIdentityCache.NO_ID) {
+            return;
+        }
+        try {
+            removeQueuedMessages(userID, messageIDs);
+        } catch (SQLException e) {
+            LOGGER.info("Caught SQL Exception:" + e.toString());
+        }
+    }
+
+    /**
+     * removes the given messages from the user's inbox
+     */
+    private void removeQueuedMessages(int userID, Collection<Integer> messageIDs) throws SQLException {
+        if (messageIDs.isEmpty()) {
+            return;
+        }
+        String delete = "DELETE FROM pending_delivery WHERE userID = ? AND messageID = ?";
+        try (PreparedStatement pStatement = connection.prepareStatement(delete)) {
+            for (int messageID : messageIDs) {
+                pStatement.setInt(1, userID);
+                pStatement.setInt(2, messageID);
+                pStatement.addBatch();
+            }
+            pStatement.executeBatch();
+        }
+    }
+
     /**
      * SPRINT 3(PREM)
      * retrieve message id of last message send by user
@@ -137,9 +422,10 @@ public class MessageDB {
     public int getLastMessageID(String user) {
         int msgID = -1;
         try {
-            String sql = "SELECT messageID FROM message_details WHERE fromUser = '" + sqlDB.getUserID(user) + "' ORDER BY messageID DESC LIMIT 1";
-            try (Statement pStatement = connection.createStatement()) {
-                try (ResultSet rs = pStatement.executeQuery(sql)) {
+            String sql = "SELECT messageID FROM message_details WHERE fromUser = ? ORDER BY messageID DESC LIMIT 1";
+            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+                pStatement.setInt(1, sqlDB.getUserID(user));
+                try (ResultSet rs = pStatement.executeQuery()) {
                     while (rs.next()) {
                         msgID = rs.getInt("messageID");
                     }
@@ -194,9 +480,12 @@ public class MessageDB {
         SortedMap<Timestamp, String> groupHashMap = new TreeMap<Timestamp, String>();
         SortedMap<Timestamp, String> broadcastHashMap = new TreeMap<Timestamp, String>();
         try {
-            String sql = "SELECT messageID, fromUser, toUser, IsGroupMsg, message, creationTime, IsBroadcast FROM message_details WHERE " + type + " = '" + username + "'" + "AND isRecall = 0";
-            try (Statement pStatement = connection.createStatement()) {
-                try (ResultSet rs = pStatement.executeQuery(sql)) {
+            // The column cannot be a parameter, so each of the two gets its own statement.
+            String column = type.equals("fromUser") ? "fromUser" : "toUser";
+            String sql = "SELECT messageID, fromUser, toUser, IsGroupMsg, message, creationTime, IsBroadcast FROM message_details WHERE " + column + " = ? AND isRecall = 0";
+            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+                pStatement.setString(1, username);
+                try (ResultSet rs = pStatement.executeQuery()) {
                     while (rs.next()) {
                         String to = rs.getString("toUser");
                         String from = rs.getString("fromUser");
@@ -259,9 +548,10 @@ public class MessageDB {
         List<String> msgInformation = new ArrayList<>();
         SortedMap<Timestamp, String> queuedMsgs = new TreeMap<Timestamp, String>();
         try {
-            String sql = "SELECT fromUser, toUser, IsGroupMsg, message, creationTime, IsBroadcast, isRecall FROM message_details WHERE creationTime > '" + lastSeen + "'" + "AND IsBroadcast = 0";
-            try (Statement pStatement = connection.createStatement()) {
-                try (ResultSet rs = pStatement.executeQuery(sql)) {
+            String sql = "SELECT fromUser, toUser, IsGroupMsg, message, creationTime, IsBroadcast, isRecall FROM message_details WHERE creationTime > ? AND IsBroadcast = 0";
+            try (PreparedStatement pStatement = connection.prepareStatement(sql)) {
+                pStatement.setTimestamp(1, lastSeen);
+                try (ResultSet rs = pStatement.executeQuery()) {
                     while (rs.next()) {
                         String fromUser = sqlDB.getUsername(rs.getInt("fromUser"));
                         String to = rs.getString("toUser");
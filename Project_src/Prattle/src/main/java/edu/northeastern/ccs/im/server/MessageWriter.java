@@ -0,0 +1,329 @@
+package edu.northeastern.ccs.im.server;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import edu.northeastern.ccs.im.server.MessageDB.PendingMessage;
+
+/**
+ * Stores chat messages behind the backs of the threads delivering them. Messages
+ * are queued and a writer thread stores them in batches, each committed at once
+ * (group commit): a batch is written as soon as it holds the batch size, or once
+ * its first message has waited the longest delay.
+ * <p>
+ * The queue is bounded; when it is still full after a short wait the caller
+ * stores its message itself, which slows producers down to the speed of the
+ * database rather than dropping messages. A message stored that way can reach
+ * the database, and so get its id, before messages queued ahead of it, so under
+ * such load a conversation may be stored slightly out of order. Whatever is
+ * queued is written before the writer is closed. A batch which fails is retried
+ * one message at a time, so only the bad messages are lost.
+ */
+class MessageWriter {
+
+    /**
+     * How long a message may stay in memory before it is stored.
+     */
+    enum Durability {
+        /**
+         * Store each message on the caller's thread before returning.
+         */
+        SYNC,
+        /**
+         * Queue the message and store it with the next batch.
+         */
+        ASYNC;
+
+        /**
+         * Find the mode named by the given property value. Unknown or missing
+         * values fall back to ASYNC.
+         *
+         * @param value Value of the durability property (may be null)
+         * @return The matching mode.
+         */
+        static Durability fromProperty(String value) {
+            if (value != null) {
+                for (Durability durability : values()) {
+                    if (durability.name().equalsIgnoreCase(value.trim())) {
+                        return durability;
+                    }
+                }
+            }
+            return ASYNC;
+        }
+    }
+
+    /**
+     * Where the batches go.
+     */
+    @FunctionalInterface
+    interface Sink {
+        /**
+         * Store and commit the batch. Called by the writer thread and by callers
+         * whose message did not fit in the queue, possibly at the same time.
+         *
+         * @param batch Messages to be stored, in order.
+         * @throws SQLException Exception thrown if the batch could not be stored.
+         */
+        void write(List<PendingMessage> batch) throws SQLException;
+    }
+
+    /**
+     * Default number of messages committed together.
+     */
+    static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default longest time a message waits for its batch to fill up.
+     */
+    static final int DEFAULT_DELAY_IN_MS = 50;
+
+    /**
+     * Default number of messages which may wait to be stored.
+     */
+    static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * How long the idle writer waits for a message before checking whether it
+     * has been closed.
+     */
+    private static final long IDLE_POLL_IN_MS = 100;
+
+    /**
+     * How long a caller waits for room in a full queue before storing its
+     * message itself.
+     */
+    private static final long FULL_QUEUE_WAIT_IN_MS = 20;
+
+    private static final Logger LOGGER = Logger.getLogger(MessageWriter.class.getName());
+
+    private final Sink sink;
+
+    private final BlockingQueue<PendingMessage> queue;
+
+    private final int batchSize;
+
+    private final long delayInMs;
+
+    private final Thread writer;
+
+    /**
+     * Whether new messages are still accepted. Read while holding the read lock
+     * of admission and changed while holding its write lock, so that no message
+     * is queued once close() has let the writer drain.
+     */
+    private volatile boolean open;
+
+    /**
+     * Lets callers queue messages side by side, waiting for room if need be,
+     * while close() waits for them to finish.
+     */
+    private final ReadWriteLock admission = new ReentrantReadWriteLock();
+
+    /**
+     * Number of messages queued so far, and number of them written (or given up
+     * on) so far. Guarded by this.
+     */
+    private long queued;
+    private long written;
+
+    /**
+     * Create a writer and start its thread.
+     *
+     * @param sink      Where the batches are stored.
+     * @param batchSize Largest number of messages committed together.
+     * @param delayInMs Longest time a message waits for its batch to fill up.
+     * @param capacity  Largest number of messages waiting to be stored.
+     */
+    MessageWriter(Sink sink, int batchSize, long delayInMs, int capacity) {
+        this.sink = sink;
+        this.batchSize = Math.max(1, batchSize);
+        this.delayInMs = Math.max(0, delayInMs);
+        queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        open = true;
+        writer = new Thread(this::run, "prattle-message-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Create a writer configured through the system properties.
+     *
+     * @param sink Where the batches are stored.
+     * @return A new, running writer.
+     */
+    static MessageWriter fromProperties(Sink sink) {
+        return new MessageWriter(sink,
+                Integer.getInteger(ServerConstants.PERSIST_BATCH_PROPERTY, DEFAULT_BATCH_SIZE),
+                Integer.getInteger(ServerConstants.PERSIST_DELAY_PROPERTY, DEFAULT_DELAY_IN_MS),
+                Integer.getInteger(ServerConstants.PERSIST_CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Queue a message to be stored. If the queue stays full for a short while, or
+     * the writer has been closed, the message is stored right away on the calling
+     * thread.
+     *
+     * @param msg Message to be stored.
+     * @return True if the message was queued or stored; false if storing it failed.
+     */
+    boolean store(PendingMessage msg) {
+        admission.readLock().lock();
+        try {
+            // Not waiting while holding this, which the writer needs to report its progress.
+            if (open && queue.offer(msg, FULL_QUEUE_WAIT_IN_MS, TimeUnit.MILLISECONDS)) {
+                synchronized (this) {
+                    queued++;
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            admission.readLock().unlock();
+        }
+        List<PendingMessage> single = new ArrayList<>(1);
+        single.add(msg);
+        return write(single);
+    }
+
+    /**
+     * Wait until every message queued before this call has been written.
+     */
+    void flush() {
+        synchronized (this) {
+            long target = queued;
+            while (written < target && writer.isAlive()) {
+                try {
+                    wait(delayInMs + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop accepting messages and wait for the queued ones to be written.
+     */
+    void close() {
+        admission.writeLock().lock();
+        try {
+            open = false;
+        } finally {
+            admission.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the number of messages waiting to be written.
+     *
+     * @return Size of the queue.
+     */
+    int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Collect batches and write them until the writer is closed and the queue
+     * has been drained.
+     */
+    private void run() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (open || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                // Only close() stops the writer; write what we have and carry on.
+                LOGGER.info("Caught Exception: " + e.toString());
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                synchronized (this) {
+                    written += batch.size();
+                    notifyAll();
+                }
+                batch.clear();
+            }
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for a first message, then for more until the batch is full or the
+     * first message has waited the longest delay.
+     */
+    private void collect(List<PendingMessage> batch) throws InterruptedException {
+        if (!open) {
+            queue.drainTo(batch, batchSize);
+            return;
+        }
+        PendingMessage first = queue.poll(IDLE_POLL_IN_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            // Nothing to write; go back and check whether we are closing.
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayInMs);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long left = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || left <= 0) {
+                break;
+            }
+            PendingMessage next = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Write a batch. If it fails, its messages are written again one at a time,
+     * so a single bad message only loses itself rather than everyone's batch.
+     *
+     * @return True if every message was stored.
+     */
+    private boolean write(List<PendingMessage> batch) {
+        try {
+            sink.write(batch);
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                LOGGER.info("Could not store a message from " + batch.get(0).from + ": " + e.toString());
+                return false;
+            }
+            LOGGER.info("Could not store " + batch.size() + " messages at once, storing them one by one: " + e.toString());
+        }
+        int lost = 0;
+        for (PendingMessage msg : batch) {
+            try {
+                sink.write(Collections.singletonList(msg));
+            } catch (SQLException | RuntimeException e) {
+                lost++;
+                LOGGER.info("Could not store a message from " + msg.from + ": " + e.toString());
+            }
+        }
+        if (lost > 0) {
+            LOGGER.info("Could not store " + lost + " of " + batch.size() + " messages");
+        }
+        return lost == 0;
+    }
+}
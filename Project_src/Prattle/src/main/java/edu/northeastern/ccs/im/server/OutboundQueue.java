@@ -0,0 +1,233 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Bounded queue of the messages waiting to be sent to one client. When a slow
+ * client lets the queue fill up, the configured policy decides what gives:
+ * <ul>
+ * <li>DROP_OLDEST discards the oldest queued messages to make room;</li>
+ * <li>DISCONNECT refuses the message and asks for the client to be cut off;</li>
+ * <li>SPILL refuses this and every following message until the queue has been
+ * drained. Each refused message is put in the recipient's inbox in the
+ * database instead, from which the client is sent it once it has caught up.</li>
+ * </ul>
+ * The limit and policy are read from the {@link ServerConstants#OUTBOUND_LIMIT_PROPERTY}
+ * and {@link ServerConstants#OUTBOUND_POLICY_PROPERTY} system properties.
+ */
+class OutboundQueue {
+
+    /**
+     * What to do with a message for a client whose queue is full.
+     */
+    enum Policy {
+        DROP_OLDEST,
+        DISCONNECT,
+        SPILL;
+
+        /**
+         * Find the policy named by the given property value. Unknown or missing
+         * values fall back to dropping the oldest messages.
+         *
+         * @param value Value of the policy property (may be null)
+         * @return The matching policy.
+         */
+        static Policy fromProperty(String value) {
+            if (value != null) {
+                String wanted = value.trim().replace("-", "").replace("_", "");
+                for (Policy policy : values()) {
+                    if (policy.name().replace("_", "").equalsIgnoreCase(wanted)) {
+                        return policy;
+                    }
+                }
+            }
+            return DROP_OLDEST;
+        }
+    }
+
+    /**
+     * Default number of messages which may wait for a single client.
+     */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Number of messages dropped (or refused) by each policy, across all clients.
+     */
+    private static final AtomicLongArray DROPS = new AtomicLongArray(Policy.values().length);
+
+    /**
+     * Messages waiting to be sent.
+     */
+    private final BlockingQueue<Message> messages;
+
+    /**
+     * Policy applied when the queue is full.
+     */
+    private final Policy policy;
+
+    /**
+     * Whether a message was refused under the DISCONNECT policy.
+     */
+    private volatile boolean overflowed;
+
+    /**
+     * Whether messages for this client are being refused until the queue has
+     * been drained.
+     */
+    private boolean spilling;
+
+    /**
+     * Create a new, empty queue.
+     *
+     * @param capacity Largest number of messages which may be queued.
+     * @param policy   Policy applied when the queue is full.
+     */
+    OutboundQueue(int capacity, Policy policy) {
+        messages = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+    }
+
+    /**
+     * Create a queue using the limit and policy set through the system properties.
+     *
+     * @return A new, empty queue.
+     */
+    static OutboundQueue fromProperties() {
+        int capacity = Integer.getInteger(ServerConstants.OUTBOUND_LIMIT_PROPERTY, DEFAULT_CAPACITY);
+        Policy policy = Policy.fromProperty(System.getProperty(ServerConstants.OUTBOUND_POLICY_PROPERTY));
+        return new OutboundQueue(Math.max(1, capacity), policy);
+    }
+
+    /**
+     * Return the number of messages dropped or refused by the given policy since
+     * the server started.
+     *
+     * @param policy Policy in which we are interested.
+     * @return Number of messages the policy did not queue.
+     */
+    static long getDropCount(Policy policy) {
+        return DROPS.get(policy.ordinal());
+    }
+
+    /**
+     * Queue a message, applying this queue's policy if it is full.
+     *
+     * @param message Message to be sent to the client.
+     * @return True if the message was queued; false if it was refused.
+     */
+    boolean offer(Message message) {
+        if (policy == Policy.SPILL) {
+            return offerOrSpill(message);
+        }
+        while (!messages.offer(message)) {
+            if (policy == Policy.DISCONNECT) {
+                overflowed = true;
+                DROPS.incrementAndGet(policy.ordinal());
+                return false;
+            }
+            if (messages.poll() != null) {
+                DROPS.incrementAndGet(policy.ordinal());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queue a message unless the queue is full or already spilling, in which case
+     * the message is left to the database.
+     */
+    private synchronized boolean offerOrSpill(Message message) {
+        if (!spilling && messages.offer(message)) {
+            return true;
+        }
+        spilling = true;
+        DROPS.incrementAndGet(policy.ordinal());
+        return false;
+    }
+
+    /**
+     * Queue a message only if there is room for it, whatever the policy: nothing
+     * queued is dropped, and a message refused is counted as neither dropped nor
+     * spilled. Used for messages still held in the database, which stay there
+     * until they have been queued.
+     *
+     * @param message Message to be sent to the client.
+     * @return True if the message was queued; false if the queue is full or spilling.
+     */
+    synchronized boolean offerIfRoom(Message message) {
+        return !spilling && messages.offer(message);
+    }
+
+    /**
+     * Once the queue has been drained, stop spilling and resume queueing.
+     *
+     * @return True if the queue was spilling, so that the messages refused in the
+     *         meantime are waiting in the client's inbox; false otherwise.
+     */
+    synchronized boolean endSpill() {
+        if (!spilling || !messages.isEmpty()) {
+            return false;
+        }
+        spilling = false;
+        return true;
+    }
+
+    /**
+     * Return if the client must be disconnected because its queue overflowed.
+     *
+     * @return True if a message was refused under the DISCONNECT policy.
+     */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Remove the oldest queued message.
+     *
+     * @return The oldest message, or null if the queue is empty.
+     */
+    Message poll() {
+        return messages.poll();
+    }
+
+    /**
+     * Return if no message is waiting.
+     *
+     * @return True if the queue is empty.
+     */
+    boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * Return the number of messages waiting.
+     *
+     * @return Number of queued messages.
+     */
+    int size() {
+        return messages.size();
+    }
+
+    /**
+     * Return the number of messages which may still be queued before the queue
+     * is full.
+     *
+     * @return Number of free places.
+     */
+    int remainingCapacity() {
+        return messages.remainingCapacity();
+    }
+
+    /**
+     * Return the policy applied when this queue is full.
+     *
+     * @return This queue's policy.
+     */
+    Policy getPolicy() {
+        return policy;
+    }
+}
@@ -8,10 +8,13 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -48,8 +51,8 @@ public abstract class Prattle {
     /* Delay between times the thread pool runs the client check. */
     private static final int CLIENT_CHECK_DELAY = 200;
 
-    /* Collection of threads that are currently being used. */
-    private static ConcurrentLinkedQueue<ClientRunnable> active;
+    /* Clients that are currently connected, indexed by user name. */
+    private static final SessionRegistry sessions = new SessionRegistry();
 
     /* Socket on the appropriate port to which this server connects. */
     private static ServerSocketChannel serverSocket;
@@ -61,28 +64,45 @@ public abstract class Prattle {
 
 
 
-
-    /* All of the static initialization occurs in this "method" */
-    static {
-        // Create the new queue of active threads.
-        active = new ConcurrentLinkedQueue<>();
-    }
-
     /**
      * Broadcast a given message to all the other IM clients currently on the
      * system. This message _will_ be sent to the client who originally sent it.
      *
      * @param message Message that the client sent.
+     * @return The signed-in users, other than the sender, none of whose sessions
+     * took the message: it has to wait for them in the database.
      */
-    public static void broadcastMessage(Message message) {
+    public static List<String> broadcastMessage(Message message) {
+        Filtering variants = new Filtering(message);
+        Set<String> delivered = new HashSet<>();
+        Set<String> missed = new LinkedHashSet<>();
         // Loop through all of our active threads
-        for (ClientRunnable tt : active) {
+        for (ClientRunnable tt : sessions.all()) {
             // Do not send the message to any clients that are not ready to receive it.
             if (tt.isInitialized()) {
-                if (db.getControl(message.getSender()) == 1 || db.getControl(message.getReceiver()) == 1)  {
-                        message.controlText();
+                boolean queued = tt.enqueueMessage(variants.forRecipient(tt));
+                if (tt.isValidated() && tt.getName() != null) {
+                    (queued ? delivered : missed).add(tt.getName());
+                }
+            }
+        }
+        missed.removeAll(delivered);
+        missed.remove(message.getSender());
+        return new ArrayList<>(missed);
+    }
+
+    /**
+     * Tell the signed-in sessions of the given users that messages were put in
+     * their inbox, so that they read it again once they have caught up.
+     *
+     * @param users Users whose inbox received messages.
+     */
+    public static void inboxChanged(Collection<String> users) {
+        for (String user : users) {
+            for (ClientRunnable tt : sessions.named(user)) {
+                if (tt.isValidated()) {
+                    tt.inboxChanged();
                 }
-                tt.enqueueMessage(message);
             }
         }
     }
@@ -93,33 +113,78 @@ public abstract class Prattle {
      *
      * @param message Message that the client sent.
      * @param client Destination of the message
-     *
+     * @return True if a signed-in session of the client took the message; false
+     * if the message has to wait for the client in the database.
      */
-    public static void directMessage(Message message, String client) {
-        // Loop through all of our active threads
-        for (ClientRunnable tt : active) {
+    public static boolean directMessage(Message message, String client) {
+        Filtering variants = null;
+        boolean delivered = false;
+        // Only look at the sessions of the recipient
+        for (ClientRunnable tt : sessions.named(client)) {
             // Do not send the message to any clients that are not ready to receive it.
-            if (tt.isInitialized() && tt.getName().equals(client)) {
-                if (db.getControl(message.getSender()) == 1 || db.getControl(message.getReceiver()) == 1)  {
-                        message.controlText();
+            if (tt.isInitialized()) {
+                if (variants == null) {
+                    variants = new Filtering(message);
                 }
-                tt.enqueueMessage(message);
+                delivered |= tt.enqueueMessage(variants.forRecipient(tt)) && tt.isValidated();
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Picks the version of a message each recipient gets: filtered if parental
+     * control is on for the sender or the recipient, as is otherwise. The
+     * sender's flag is looked up once and the filtered copy is made at most once,
+     * so every recipient of each version shares its encoded bytes.
+     */
+    private static final class Filtering {
+        private final Message original;
+        private final boolean senderControlled;
+        private Message filtered;
+
+        Filtering(Message message) {
+            original = message;
+            String sender = message.getSender();
+            senderControlled = sender != null && !SERVER_NAME.equals(sender) && db.isControlled(sender);
+        }
+
+        Message forRecipient(ClientRunnable recipient) {
+            if (!senderControlled && !recipient.isControlled()) {
+                return original;
+            }
+            if (filtered == null) {
+                filtered = original.filtered();
             }
+            return filtered;
         }
     }
 
     public static List<String> getOnline() {
         List<String> users = new ArrayList<>();
-        // Loop through all of our active threads
-        for (ClientRunnable tt : active) {
-            // Do not send the message to any clients that are not ready to receive it.
-            if (tt.isInitialized()) {
-                users.add(tt.getName());
+        // Loop through the users who have at least one session
+        for (String name : sessions.names()) {
+            for (ClientRunnable tt : sessions.named(name)) {
+                // Do not count clients that are not ready to receive messages.
+                if (tt.isInitialized()) {
+                    users.add(name);
+                }
             }
         }
         return users;
     }
 
+    /**
+     * Re-index a connected client whose user name has changed.
+     *
+     * @param client  Client whose name changed.
+     * @param oldName Previous name of the client (may be null)
+     * @param newName New name of the client (may be null)
+     */
+    static void renameClient(ClientRunnable client, String oldName, String newName) {
+        sessions.rename(client, oldName, newName);
+    }
+
     /**
      * Start up the threaded talk server. This class accepts incoming connections on
      * a specific port specified on the command-line. Whenever it receives a new
@@ -127,6 +192,13 @@ public abstract class Prattle {
      * client. This class relies on the server not receiving too many requests -- it
      * does not include any code to limit the number of extant threads.
      *
+     * The way clients are driven is chosen with the <code>prattle.mode</code>
+     * system property: <code>scheduled</code> (the default) polls every client on
+     * a fixed rate, while <code>reactor</code> spreads the client channels over
+     * <code>prattle.reactors</code> selector threads (assigned by
+     * <code>prattle.balance</code>) and only runs clients which are ready, and
+     * <code>virtual</code> serves each client from a virtual thread of its own.
+     *
      * @param args String arguments to the server from the command line. At present
      *             the only legal (and required) argument is the port on which this
      *             server should list.
@@ -143,6 +215,14 @@ public abstract class Prattle {
         Selector selector = SelectorProvider.provider().openSelector();
         // Register to receive any incoming connection messages.
         serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+        ServerMode mode = ServerMode.fromProperty(System.getProperty(ServerConstants.MODE_PROPERTY));
+        if (mode == ServerMode.REACTOR) {
+            runReactor(selector);
+            return;
+        } else if (mode == ServerMode.VIRTUAL) {
+            runConnectionThreads(selector);
+            return;
+        }
         // Create our pool of threads on which we will execute.
         ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(THREAD_POOL_SIZE);
         // Listen on this port until ...
@@ -151,6 +231,82 @@ public abstract class Prattle {
         }
     }
 
+    /**
+     * Serve clients from a group of reactors. The accepting selector only accepts
+     * connections and hands each new client to one of the reactors, each of which
+     * watches its own share of the client channels and hands ready clients to a
+     * pool of workers.
+     *
+     * @param selector Selector on which the server socket is registered.
+     * @throws IOException Exception thrown if a reactor's selector cannot be opened.
+     */
+    private static void runReactor(Selector selector) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
+        int count = Integer.getInteger(ServerConstants.REACTORS_PROPERTY,
+                Runtime.getRuntime().availableProcessors());
+        ReactorGroup.Balance balance = ReactorGroup.Balance.fromProperty(
+                System.getProperty(ServerConstants.BALANCE_PROPERTY));
+        ReactorGroup group = new ReactorGroup(count, workers, balance);
+        Reactor acceptor = new Reactor(selector, workers);
+        acceptor.setAcceptor(() -> acceptConnection(group));
+        group.start();
+        try {
+            acceptor.run();
+        } finally {
+            group.shutdown();
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Accept a pending connection and hand the new client to one of the reactors.
+     *
+     * @param group Reactors among which the new client will be placed.
+     */
+    private static void acceptConnection(ReactorGroup group) {
+        try {
+            SocketChannel socket = serverSocket.accept();
+            if (socket != null) {
+                group.register(createClient(socket, false));
+            }
+        } catch (Exception e) {
+            LOGGER.info("Caught Exception: " + e.toString());
+        }
+    }
+
+    /**
+     * Serve every client from a thread of its own. The accepting selector only
+     * accepts connections; each client's thread then blocks reading its channel.
+     *
+     * @param selector Selector on which the server socket is registered.
+     */
+    private static void runConnectionThreads(Selector selector) {
+        ConnectionThreads threads = new ConnectionThreads();
+        Reactor acceptor = new Reactor(selector, Runnable::run);
+        acceptor.setAcceptor(() -> acceptConnection(threads));
+        try {
+            acceptor.run();
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    /**
+     * Accept a pending connection and start a thread serving the new client.
+     *
+     * @param threads Connection threads which will serve the new client.
+     */
+    private static void acceptConnection(ConnectionThreads threads) {
+        try {
+            SocketChannel socket = serverSocket.accept();
+            if (socket != null) {
+                threads.serve(createClient(socket, true));
+            }
+        } catch (Exception e) {
+            LOGGER.info("Caught Exception: " + e.toString());
+        }
+    }
+
     private static void parseIncomingRequests(Selector selector, ScheduledExecutorService threadPool) throws IOException {
         // Check if we have a valid incoming request, but limit the time we may wait.
         while (selector.select(DELAY_IN_MS) != 0) {
@@ -192,9 +348,7 @@ public abstract class Prattle {
     }
 
     private static void createClient(ScheduledExecutorService threadPool, SocketChannel socket) throws IOException {
-        ClientRunnable tt = new ClientRunnable(socket);
-        // Add the thread to the queue of active threads
-        active.add(tt);
+        ClientRunnable tt = createClient(socket, false);
         // Have the client executed by our pool of threads.
         @SuppressWarnings("rawtypes")
         ScheduledFuture clientFuture = threadPool.scheduleAtFixedRate(tt, CLIENT_CHECK_DELAY,
@@ -202,6 +356,13 @@ public abstract class Prattle {
         tt.setFuture(clientFuture);
     }
 
+    private static ClientRunnable createClient(SocketChannel socket, boolean blocking) throws IOException {
+        ClientRunnable tt = new ClientRunnable(socket, blocking);
+        // Add the thread to the registry of active threads
+        sessions.add(tt);
+        return tt;
+    }
+
 
     /**
      * Remove the given IM client from the list of active threads.
@@ -212,7 +373,7 @@ public abstract class Prattle {
     public static void removeClient(ClientRunnable dead) {
         // Test and see if the thread was in our list of active clients so that we
         // can remove it.
-        if (!active.remove(dead)) {
+        if (!sessions.remove(dead)) {
             LOGGER.info("Could not find a thread that I tried to remove!\n");
         }
     }
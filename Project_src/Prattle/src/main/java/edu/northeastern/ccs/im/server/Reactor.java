@@ -0,0 +1,215 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * Event loop which owns a selector watching client channels. A client is handed
+ * to the workers only when its channel becomes readable (or writable, while it
+ * has output the socket could not take), when another client queues a message
+ * for it, or when the {@link TimingWheel} reports that one of its deadlines
+ * (inactivity or delayed special responses) has passed. Idle clients therefore
+ * cost nothing between events.
+ * <p>
+ * Only the thread running the loop touches the selector's keys; other threads
+ * hand registrations and re-arm requests over through queues and wake the
+ * selector up.
+ */
+class Reactor extends ClientDispatcher implements Runnable {
+
+    /**
+     * Selector watching all of the channels owned by this reactor.
+     */
+    private final Selector selector;
+
+    /**
+     * Clients waiting to be registered with the selector.
+     */
+    private final Queue<ClientRunnable> registrations;
+
+    /**
+     * Clients which have been run and wish to be watched for input (and, if need
+     * be, for the socket draining) again.
+     */
+    private final Queue<ClientRunnable> rearms;
+
+    /**
+     * Clients currently owned by this reactor.
+     */
+    private final Set<ClientRunnable> sessions;
+
+    /**
+     * Invoked when the selector reports an incoming connection (may be null).
+     */
+    private Runnable acceptor;
+
+    /**
+     * Create a new reactor around the given selector.
+     *
+     * @param selector Selector whose keys this reactor will own.
+     * @param workers  Executor on which ready clients are run.
+     */
+    Reactor(Selector selector, Executor workers) {
+        super(workers);
+        this.selector = selector;
+        registrations = new ConcurrentLinkedQueue<>();
+        rearms = new ConcurrentLinkedQueue<>();
+        sessions = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Set the action run whenever a channel registered for OP_ACCEPT is ready.
+     *
+     * @param acceptor Action accepting the pending connection.
+     */
+    void setAcceptor(Runnable acceptor) {
+        this.acceptor = acceptor;
+    }
+
+    /**
+     * Hand a newly created client to this reactor. It may be called from any
+     * thread.
+     *
+     * @param client Client whose channel this reactor will watch.
+     */
+    void register(ClientRunnable client) {
+        client.setDispatcher(this);
+        sessions.add(client);
+        registrations.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Return the number of clients currently owned by this reactor.
+     *
+     * @return Number of live sessions on this reactor.
+     */
+    int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Wake the selector up, e.g. so that an interrupted loop notices it should stop.
+     */
+    void wakeup() {
+        selector.wakeup();
+    }
+
+    /**
+     * Close the selector once the loop has stopped.
+     */
+    void close() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.info("Caught Exception: " + e.toString());
+        }
+    }
+
+    /**
+     * Loop forever, dispatching clients whose channels are ready.
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted() && selector.isOpen()) {
+            try {
+                selector.select();
+                processRegistrations();
+                processRearms();
+                processSelectedKeys();
+            } catch (IOException e) {
+                LOGGER.info("Caught Exception: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Register the clients which were handed to us since the last pass.
+     */
+    private void processRegistrations() {
+        ClientRunnable client;
+        while ((client = registrations.poll()) != null) {
+            try {
+                client.getChannel().register(selector, SelectionKey.OP_READ, client);
+            } catch (ClosedChannelException e) {
+                LOGGER.info("Client closed before registration: " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Resume watching the clients whose workers have finished with them.
+     */
+    private void processRearms() {
+        ClientRunnable client;
+        while ((client = rearms.poll()) != null) {
+            SelectionKey key = client.getChannel().keyFor(selector);
+            if (key != null && key.isValid()) {
+                // Also wait for the socket to drain if some output is still queued.
+                int ops = SelectionKey.OP_READ;
+                if (client.hasPendingOutput()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+                key.interestOps(ops);
+            }
+        }
+    }
+
+    /**
+     * Handle every key the selector has reported as ready.
+     */
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                if (acceptor != null) {
+                    acceptor.run();
+                }
+            } else if (key.attachment() instanceof ClientRunnable) {
+                // Stop watching the channel until the worker has drained it.
+                key.interestOps(0);
+                dispatch((ClientRunnable) key.attachment());
+            }
+        }
+    }
+
+    /**
+     * Once a worker is done with a client, either forget about it (if it has
+     * been terminated), run it again (if it still holds parsed input), or go back
+     * to watching its channel.
+     *
+     * @param client Client which has just been run.
+     */
+    @Override
+    protected void afterRun(ClientRunnable client) {
+        SocketChannel channel = client.getChannel();
+        if (client.isClosed()) {
+            sessions.remove(client);
+            SelectionKey key = channel.keyFor(selector);
+            if (key != null) {
+                key.cancel();
+            }
+        } else if (client.hasPendingInput()) {
+            dispatch(client);
+        } else {
+            rearms.add(client);
+            selector.wakeup();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * A fixed set of reactors, each running its own event loop on its own thread
+ * with its own selector. Accepted clients are sharded across the reactors so
+ * that connection count and throughput are no longer limited by a single
+ * selector thread.
+ */
+class ReactorGroup {
+
+    /**
+     * How a reactor is chosen for each newly accepted client.
+     */
+    enum Balance {
+        /**
+         * Hand clients to the reactors in turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * Hand each client to the reactor currently owning the fewest sessions.
+         */
+        LEAST_LOAD;
+
+        /**
+         * Find the policy named by the given property value. Unknown or missing
+         * values fall back to round robin.
+         *
+         * @param value Value of the balance property (may be null)
+         * @return The matching balancing policy.
+         */
+        static Balance fromProperty(String value) {
+            if (value != null) {
+                String wanted = value.trim().replace("-", "").replace("_", "");
+                for (Balance balance : values()) {
+                    if (balance.name().replace("_", "").equalsIgnoreCase(wanted)) {
+                        return balance;
+                    }
+                }
+            }
+            return ROUND_ROBIN;
+        }
+    }
+
+    /**
+     * Reactors among which clients are shared.
+     */
+    private final Reactor[] reactors;
+
+    /**
+     * Threads running each of the reactors' loops.
+     */
+    private final Thread[] threads;
+
+    /**
+     * Policy used to pick a reactor for each new client.
+     */
+    private final Balance balance;
+
+    /**
+     * Counter used to pick the next reactor in round robin order.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * Create a group of reactors, each with its own selector, all running their
+     * ready clients on the given workers.
+     *
+     * @param count   Number of reactors to create (at least one is always created).
+     * @param workers Executor on which ready clients are run.
+     * @param balance Policy used to assign new clients to reactors.
+     * @throws IOException Exception thrown if a selector cannot be opened.
+     */
+    ReactorGroup(int count, Executor workers, Balance balance) throws IOException {
+        int size = Math.max(1, count);
+        reactors = new Reactor[size];
+        threads = new Thread[size];
+        for (int i = 0; i < size; i++) {
+            reactors[i] = new Reactor(Selector.open(), workers);
+            threads[i] = new Thread(reactors[i], "reactor-" + i);
+        }
+        this.balance = balance;
+        next = new AtomicInteger();
+    }
+
+    /**
+     * Start every reactor's event loop.
+     */
+    void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Assign a newly accepted client to one of the reactors.
+     *
+     * @param client Client to be watched.
+     * @return The reactor which now owns the client.
+     */
+    Reactor register(ClientRunnable client) {
+        Reactor reactor = choose();
+        reactor.register(client);
+        return reactor;
+    }
+
+    /**
+     * Pick the reactor which should own the next client.
+     *
+     * @return The chosen reactor.
+     */
+    Reactor choose() {
+        if (balance == Balance.LEAST_LOAD) {
+            Reactor best = reactors[0];
+            for (Reactor reactor : reactors) {
+                if (reactor.getSessionCount() < best.getSessionCount()) {
+                    best = reactor;
+                }
+            }
+            return best;
+        }
+        return reactors[Math.floorMod(next.getAndIncrement(), reactors.length)];
+    }
+
+    /**
+     * Return the number of reactors in this group.
+     *
+     * @return Number of reactors.
+     */
+    int size() {
+        return reactors.length;
+    }
+
+    /**
+     * Return the reactor at the given position in the group.
+     *
+     * @param index Position of the reactor.
+     * @return The reactor at that position.
+     */
+    Reactor getReactor(int index) {
+        return reactors[index];
+    }
+
+    /**
+     * Stop every reactor's loop, wait briefly for the threads to finish and close
+     * the selectors.
+     */
+    void shutdown() {
+        for (int i = 0; i < reactors.length; i++) {
+            threads[i].interrupt();
+            reactors[i].wakeup();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                LOGGER.info("Caught Exception: " + e.toString());
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Reactor reactor : reactors) {
+            reactor.close();
+        }
+    }
+}
@@ -14,7 +14,12 @@ public class SQLDB {
     private static final Logger LOGGER = Logger.getLogger(SQLDB.class.getName());
 
     /**
-     * Database connection
+     * Pool of connections to the database
+     */
+    private static ConnectionPool pool;
+
+    /**
+     * Database connection; each statement runs on a connection leased from the pool
      */
     private static Connection connection;
 
@@ -27,6 +32,20 @@ public class SQLDB {
     static GroupDB groupDBObject;
     static MessageDB messageDBObject;
 
+    /**
+     * Profiles of the users with an open session, kept current as their accounts change
+     */
+    private static final UserProfiles profiles = new UserProfiles();
+
+    /**
+     * Writer storing chat messages in batches, or null when they are stored as they are sent
+     */
+    private static MessageWriter messageWriter;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(SQLDB::closeMessageWriter, "prattle-db-shutdown"));
+    }
+
     final String CONNECTION_URL = "aaw5ywu4d6dc4k.c7ohnssvtfpy.us-east-1.rds.amazonaws.com";
     final String DB_PORT = "3306";
     final String DB_NAME = "team105";
@@ -42,15 +61,27 @@ public class SQLDB {
      * Constructor which establishes the connection between DB and JDBC
      */
     private SQLDB() {
-        connection = null;
+        pool = ConnectionPool.fromProperties(this::openConnection);
+        connection = pool.getConnection();
         try {
-            connection = DriverManager.
-                    getConnection("jdbc:mysql://" + CONNECTION_URL + ":" + DB_PORT + "/" + DB_NAME, DB_USERNAME, DB_PASWD);
+            // Open the first connection now, so that a database which cannot be reached shows at start up.
+            pool.borrow().release();
         } catch (SQLException e) {
             LOGGER.info("Connection Failed!:\n" + e.getMessage());
         }
     }
 
+    /**
+     * Open a new connection to the database
+     *
+     * @return the new connection
+     * @throws SQLException if the database cannot be reached
+     */
+    private Connection openConnection() throws SQLException {
+        return DriverManager.
+                getConnection("jdbc:mysql://" + CONNECTION_URL + ":" + DB_PORT + "/" + DB_NAME + "?useServerPrepStmts=true", DB_USERNAME, DB_PASWD);
+    }
+
     /**
      * @return instance of the Database
      */
@@ -60,24 +91,92 @@ public class SQLDB {
             userDBObject = new UserDB(connection);
             groupDBObject = new GroupDB(connection);
             messageDBObject = new MessageDB(connection);
+            messageDBObject.createInbox();
+            if (MessageWriter.Durability.fromProperty(System.getProperty(ServerConstants.PERSIST_MODE_PROPERTY))
+                    == MessageWriter.Durability.ASYNC) {
+                closeMessageWriter();
+                messageWriter = MessageWriter.fromProperties(instance::writeMessages);
+            }
         }
         return instance;
     }
 
     /**
-     * resets the Database connection
+     * resets the Database connection, closing the pool and its eviction task
      */
     public static void reset() {
+        closeMessageWriter();
+        if (pool != null) {
+            pool.close();
+        }
         instance = null;
     }
 
     /**
-     * Close the DB connection
+     * Store the queued messages and stop the message writer, if there is one
+     */
+    private static synchronized void closeMessageWriter() {
+        if (messageWriter != null) {
+            messageWriter.close();
+            messageWriter = null;
+        }
+    }
+
+    /**
+     * Store a batch of messages in one transaction on a connection leased from the pool.
+     * The statements go through the shared connection, which runs them on this thread's
+     * lease, so they come from that connection's statement cache like every other query.
+     * Each thread storing a batch has its own lease, hence its own transaction.
+     *
+     * @param batch messages to be stored, in order
+     * @throws SQLException if the batch could not be stored; nothing of it is then committed
+     */
+    private void writeMessages(List<MessageDB.PendingMessage> batch) throws SQLException {
+        ConnectionPool.Lease lease = pool.borrow();
+        Connection leased = lease.getConnection();
+        boolean reusable = false;
+        try {
+            leased.setAutoCommit(false);
+            try {
+                messageDBObject.storeMessages(connection, batch);
+                leased.commit();
+            } catch (SQLException e) {
+                leased.rollback();
+                throw e;
+            }
+        } finally {
+            // The pool hands out connections in auto-commit mode; one which cannot be put back in it is dropped.
+            try {
+                leased.setAutoCommit(true);
+                reusable = true;
+            } catch (SQLException e) {
+                LOGGER.info(EXCEPTIONMSG + e.toString());
+            }
+            if (!reusable) {
+                lease.markBroken();
+            }
+            lease.release();
+        }
+    }
+
+    /**
+     * Wait until the messages queued for storage have been stored, so that queries
+     * on the messages see them
+     */
+    private static void flushMessages() {
+        MessageWriter writer = messageWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * Close the DB connections
      *
      * @throws SQLException
      */
     public void close() throws SQLException {
-        connection.close();
+        pool.close();
     }
 
     /**
@@ -274,7 +373,27 @@ public class SQLDB {
      * @return true from user exists and sql operation is successful
      */
     public boolean storeMessageIndividual(String from, String to, String text, String senderIP, String receiverIP) {
-        return messageDBObject.storeMessageIndividual(from, to, text, senderIP, receiverIP);
+        return storeMessageIndividual(from, to, text, senderIP, receiverIP, Collections.<String>emptyList());
+    }
+
+    /**
+     * stores the messages for each user, and queues it for the recipients who are offline
+     *
+     * @param from       user who sent the message
+     * @param to         user who received the message
+     * @param text       message sene from one user to other
+     * @param senderIP   ip address of sender
+     * @param receiverIP ip address of receiver
+     * @param offline    users to whom the message is delivered when they next sign in
+     * @return true from user exists and sql operation is successful
+     */
+    public boolean storeMessageIndividual(String from, String to, String text, String senderIP, String receiverIP,
+                                          Collection<String> offline) {
+        MessageWriter writer = messageWriter;
+        if (writer != null) {
+            return writer.store(new MessageDB.PendingMessage(from, to, text, false, false, senderIP, receiverIP, offline));
+        }
+        return messageDBObject.storeMessageIndividual(from, to, text, senderIP, receiverIP, offline);
     }
 
     /**
@@ -288,7 +407,27 @@ public class SQLDB {
      * @return true if users/groups exists and sql operation is successful
      */
     public boolean storeMessageGroup(String from, String group, String text, String senderIP, String receiverIP) {
-        return messageDBObject.storeMessageGroup(from, group, text, senderIP, receiverIP);
+        return storeMessageGroup(from, group, text, senderIP, receiverIP, Collections.<String>emptyList());
+    }
+
+    /**
+     * stores the messages for a group, and queues it for the members who are offline
+     *
+     * @param from       user who sent the message
+     * @param group      group to which the message is sent
+     * @param text       the messages sent by the user/users
+     * @param senderIP   ip address of sender
+     * @param receiverIP ip address of receiver
+     * @param offline    members to whom the message is delivered when they next sign in
+     * @return true if users/groups exists and sql operation is successful
+     */
+    public boolean storeMessageGroup(String from, String group, String text, String senderIP, String receiverIP,
+                                     Collection<String> offline) {
+        MessageWriter writer = messageWriter;
+        if (writer != null) {
+            return writer.store(new MessageDB.PendingMessage(from, group, text, true, false, senderIP, receiverIP, offline));
+        }
+        return messageDBObject.storeMessageGroup(from, group, text, senderIP, receiverIP, offline);
     }
 
     /**
@@ -301,7 +440,26 @@ public class SQLDB {
      * @return true if the user exists and sql operation is successful
      */
     public boolean storeMessageBroadcast(String from, String text, String senderIP, String receiverIP) {
-        return messageDBObject.storeMessageBroadcast(from, text, senderIP, receiverIP);
+        return storeMessageBroadcast(from, text, senderIP, receiverIP, Collections.<String>emptyList());
+    }
+
+    /**
+     * stores the broadcast messages, and queues it for the users who did not get it
+     *
+     * @param from       user who sent the message
+     * @param text       message sent by the user
+     * @param senderIP   ip address of sender
+     * @param receiverIP ip address of receiver
+     * @param offline    users to whom the message is delivered when they next read their inbox
+     * @return true if the user exists and sql operation is successful
+     */
+    public boolean storeMessageBroadcast(String from, String text, String senderIP, String receiverIP,
+                                         Collection<String> offline) {
+        MessageWriter writer = messageWriter;
+        if (writer != null) {
+            return writer.store(new MessageDB.PendingMessage(from, "BROADCAST", text, false, true, senderIP, receiverIP, offline));
+        }
+        return messageDBObject.storeMessageBroadcast(from, text, senderIP, receiverIP, offline);
     }
 
     /**
@@ -312,6 +470,7 @@ public class SQLDB {
      * @return message id of last message sent by user
      */
     public int getLastMessageID(String user) {
+        flushMessages();
         return messageDBObject.getLastMessageID(user);
     }
 
@@ -324,6 +483,7 @@ public class SQLDB {
      * @return true if updation is successful otherwise false
      */
     public boolean setRecallFlagMessage(String userName, int messageID) {
+        flushMessages();
         return messageDBObject.setRecallFlagMessage(userName, messageID);
     }
 
@@ -334,6 +494,7 @@ public class SQLDB {
      * @return list of all the broadcast, group, individual messages sent/received by the user
      */
     public String getAllMessagesForUser(String user, String type) {
+        flushMessages();
         return messageDBObject.getAllMessagesForUser(user, type);
     }
 
@@ -345,9 +506,34 @@ public class SQLDB {
      * @return list of all the queued messsages received by the user
      */
     public List<String> getAllQueuedMessagesForUser(String user, Timestamp lastSeen) {
+        flushMessages();
         return messageDBObject.getAllQueuedMessagesForUser(user, lastSeen);
     }
 
+    /**
+     * reads at most max of the messages queued for the user while offline; they stay queued
+     * until removed with {@link #removeQueuedMessages(String, Collection)}
+     *
+     * @param user name of the user
+     * @param max  most messages to read
+     * @param into collection to which the messages are added, in the order they were sent
+     * @return number of messages read; less than max once there are no more
+     */
+    int readQueuedMessages(String user, int max, Collection<? super MessageDB.QueuedMessage> into) {
+        flushMessages();
+        return messageDBObject.readQueuedMessages(user, max, into);
+    }
+
+    /**
+     * removes messages from the user's inbox once they have been handed to the user
+     *
+     * @param user       name of the user
+     * @param messageIDs ids of the messages to remove
+     */
+    void removeQueuedMessages(String user, Collection<Integer> messageIDs) {
+        messageDBObject.removeQueuedMessages(user, messageIDs);
+    }
+
     /**
      * gets the messages of a group in which the user is present
      *
@@ -356,6 +542,7 @@ public class SQLDB {
      * @return list of all messages in the group in which the user is present
      */
     public String getAllMessagesForGroup(String userName, String group) {
+        flushMessages();
         return messageDBObject.getAllMessagesForGroup(userName, group);
     }
 
@@ -367,6 +554,7 @@ public class SQLDB {
      * @return list of messages which are send by respective user
      */
     public List<String> getAllMessagesSendBySender(String fromUser) {
+        flushMessages();
         return messageDBObject.getAllMessagesSendBySender(fromUser);
     }
 
@@ -378,6 +566,7 @@ public class SQLDB {
      * @return list of message id which were send by respective user
      */
     public List<Integer> getAllMessageID(String fromUser) {
+        flushMessages();
         return messageDBObject.getAllMessageID(fromUser);
     }
 
@@ -389,6 +578,7 @@ public class SQLDB {
      * @return list of messages which have content as a substring
      */
     public List<String> getAllMessageBasedOnContent(String content) {
+        flushMessages();
         return messageDBObject.getAllMessageBasedOnContent(content);
     }
 
@@ -400,6 +590,7 @@ public class SQLDB {
      * @return list of messages which are delivered to respective user
      */
     public List<String> getAllMessagesReceivedByReceiver(String toUser) {
+        flushMessages();
         return messageDBObject.getAllMessagesReceivedByReceiver(toUser);
     }
 
@@ -411,6 +602,7 @@ public class SQLDB {
      * @return list of messages which are delivered at specific date
      */
     public List<String> getAllMessagesDeliveredAtSpecificDate(Date d) {
+        flushMessages();
         return messageDBObject.getAllMessagesDeliveredAtSpecificDate(d);
     }
 
@@ -474,6 +666,66 @@ public class SQLDB {
         return userDBObject.getUserRole(userName);
     }
 
+    /**
+     * Load the profile of a user signing in and keep it current for the session
+     *
+     * @param username name of the user
+     * @return handle through which the session reads the profile, or null if there is no such user
+     */
+    public UserProfiles.Handle openProfile(String username) {
+        UserProfile profile = userDBObject.retrieveProfile(username);
+        return profile == null ? null : profiles.open(username, profile);
+    }
+
+    /**
+     * Release the profile of a user whose session ends
+     *
+     * @param username name of the user
+     */
+    public void closeProfile(String username) {
+        profiles.close(username);
+    }
+
+    /**
+     * Return the profile of a signed-in user, without querying the database
+     *
+     * @param username name of the user
+     * @return the user's profile, or null if the user has no session
+     */
+    public UserProfile getProfile(String username) {
+        return profiles.get(username);
+    }
+
+    /**
+     * Whether parental control is on for a user, read from its session's profile if it is signed in
+     *
+     * @param username name of the user
+     * @return true if the user's messages are filtered
+     */
+    public boolean isControlled(String username) {
+        UserProfile profile = profiles.get(username);
+        return profile != null ? profile.isControlled() : getControl(username) == 1;
+    }
+
+    /**
+     * Address a user last connected from, read from its session's profile if it is signed in
+     *
+     * @param username name of the user
+     * @return the user's address
+     */
+    public String ipOf(String username) {
+        UserProfile profile = profiles.get(username);
+        return profile != null ? profile.getIp() : retrieve(username, "IP");
+    }
+
+    /**
+     * Role of a user, read from its session's profile if it is signed in
+     */
+    private int roleOf(String userName) {
+        UserProfile profile = profiles.get(userName);
+        return profile != null ? profile.getRole() : getUserRole(userName);
+    }
+
     /**
      * check if a user is an agency or not
      *
@@ -516,7 +768,7 @@ public class SQLDB {
         int insertedRowID = -1;
 
         try {
-            if (getUserRole(requestingUser) != USER_ROLE_AGENCY_ID) return insertedRowID;
+            if (roleOf(requestingUser) != USER_ROLE_AGENCY_ID) return insertedRowID;
             if (checkWiretapRequest(requestingUser, userOrGroupName, isGroup)) return -1;
             int requestingUserId = getUserID(requestingUser);
             int wireTapCandidate = (isGroup == 1) ? getGroupID(userOrGroupName) : getUserID(userOrGroupName);
@@ -552,7 +804,7 @@ public class SQLDB {
     public Map<Integer, String> getWiretapRequests(String requestingUser, String agencyUser, int isApproved) {
         Map<Integer, String> wiretapRequests = new HashMap<>();
         String wiretapRequestString = "";
-        if (getUserRole(requestingUser) != USER_ROLE_ADMIN_ID) return wiretapRequests;
+        if (roleOf(requestingUser) != USER_ROLE_ADMIN_ID) return wiretapRequests;
         try {
             int agencyUserId = getUserID(agencyUser);
             String sqlRetrieveAllUsers = "SELECT * FROM wiretapRequests WHERE userRequestingId LIKE ? AND isApproved=?";
@@ -608,7 +860,7 @@ public class SQLDB {
         }
         boolean flag = false;
         try {
-            if (getUserRole(requestingUser) != USER_ROLE_ADMIN_ID) return false;
+            if (roleOf(requestingUser) != USER_ROLE_ADMIN_ID) return false;
             try (PreparedStatement pStatement = connection.prepareStatement(sqlStatement)) {
                 pStatement.setInt(1, requestId);
                 pStatement.setInt(2, 0);
@@ -676,7 +928,11 @@ public class SQLDB {
      * @return true if the updatio succeds, false otherwise
      */
     public boolean updateUserRole(String username, int roleId) {
-        return userDBObject.updateUserRole(username, roleId);
+        boolean flag = userDBObject.updateUserRole(username, roleId);
+        if (flag) {
+            profiles.update(username, profile -> profile.withRole(roleId));
+        }
+        return flag;
     }
 
     /**
@@ -750,7 +1006,11 @@ public class SQLDB {
      * @return true if IP updation works successfully, false otherwise
      */
     public boolean setIP(String username, String ipAddress) {
-        return userDBObject.setIP(username, ipAddress);
+        boolean flag = userDBObject.setIP(username, ipAddress);
+        if (flag) {
+            profiles.update(username, profile -> profile.withIp(ipAddress));
+        }
+        return flag;
     }
 
 
@@ -762,7 +1022,11 @@ public class SQLDB {
      * @return true if the SQL operation is successful
      */
     public boolean setControl(String username, int i) {
-        return userDBObject.setControl(username, i);
+        boolean flag = userDBObject.setControl(username, i);
+        if (flag) {
+            profiles.update(username, profile -> profile.withControl(i));
+        }
+        return flag;
     }
 
     /**
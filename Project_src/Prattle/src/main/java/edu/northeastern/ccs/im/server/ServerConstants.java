@@ -27,6 +27,57 @@ public class ServerConstants {
 	/** The port number to listen on. */
 	protected static final int PORT = 4545;
 
+	/** System property selecting how the server drives its clients (see ServerMode). */
+	protected static final String MODE_PROPERTY = "prattle.mode";
+
+	/** System property giving the number of reactor threads (defaults to one per core). */
+	protected static final String REACTORS_PROPERTY = "prattle.reactors";
+
+	/** System property choosing how clients are spread over the reactors (roundrobin or leastload). */
+	protected static final String BALANCE_PROPERTY = "prattle.balance";
+
+	/** System property giving the most messages that may wait for one client. */
+	protected static final String OUTBOUND_LIMIT_PROPERTY = "prattle.outbound.limit";
+
+	/** System property naming what happens when a client's queue is full (see OutboundQueue). */
+	protected static final String OUTBOUND_POLICY_PROPERTY = "prattle.outbound.policy";
+
+	/** System property giving the most incoming messages a client handles per run. */
+	protected static final String INPUT_BUDGET_PROPERTY = "prattle.input.budget";
+
+	/** System property giving the number of threads running database work (see DatabaseStage). */
+	protected static final String DB_THREADS_PROPERTY = "prattle.db.threads";
+
+	/** System property giving the most connections open to the database (see ConnectionPool). */
+	protected static final String DB_POOL_SIZE_PROPERTY = "prattle.db.pool.size";
+
+	/** System property giving the longest time in ms a thread waits for a database connection. */
+	protected static final String DB_POOL_TIMEOUT_PROPERTY = "prattle.db.pool.timeout";
+
+	/** System property giving the time in ms after which an unused database connection is closed. */
+	protected static final String DB_POOL_IDLE_PROPERTY = "prattle.db.pool.idle";
+
+	/** System property giving the most prepared statements kept open per database connection. */
+	protected static final String DB_STATEMENT_CACHE_PROPERTY = "prattle.db.statements";
+
+	/** System property giving the most users whose id and name are cached (see UserIdentityCache). */
+	protected static final String USER_CACHE_PROPERTY = "prattle.db.users";
+
+	/** System property giving the most offline messages read and queued for a client at once. */
+	protected static final String INBOX_CHUNK_PROPERTY = "prattle.inbox.chunk";
+
+	/** System property choosing whether messages are stored before delivery (sync) or in batches (async). */
+	protected static final String PERSIST_MODE_PROPERTY = "prattle.persist.mode";
+
+	/** System property giving the most messages stored in one batch. */
+	protected static final String PERSIST_BATCH_PROPERTY = "prattle.persist.batch";
+
+	/** System property giving the longest time in ms a message waits for its batch. */
+	protected static final String PERSIST_DELAY_PROPERTY = "prattle.persist.delay";
+
+	/** System property giving the most messages that may wait to be stored. */
+	protected static final String PERSIST_CAPACITY_PROPERTY = "prattle.persist.capacity";
+
 	/** Name of the private user who responds to interesting queries. */
 	protected static final String NIST_NAME = "NIST";
 
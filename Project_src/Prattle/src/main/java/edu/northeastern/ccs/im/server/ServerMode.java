@@ -0,0 +1,44 @@
+package edu.northeastern.ccs.im.server;
+
+/**
+ * The different ways in which Prattle can drive the clients connected to it. The
+ * mode is chosen once at start-up from the {@link ServerConstants#MODE_PROPERTY}
+ * system property (e.g. <code>-Dprattle.mode=reactor</code>).
+ */
+enum ServerMode {
+    /**
+     * Every client is polled by the scheduled thread pool at a fixed rate, whether
+     * or not it has anything to do.
+     */
+    SCHEDULED,
+
+    /**
+     * Client channels are spread over a group of selector threads which hand
+     * clients to a pool of workers only when they are ready to be served.
+     */
+    REACTOR,
+
+    /**
+     * Every client gets a (virtual, when available) thread of its own which
+     * blocks reading the client's channel and runs the client on new input.
+     */
+    VIRTUAL;
+
+    /**
+     * Find the mode named by the given property value. Unknown or missing values
+     * fall back to the scheduled mode the server has always used.
+     *
+     * @param value Value of the mode property (may be null)
+     * @return The matching server mode.
+     */
+    static ServerMode fromProperty(String value) {
+        if (value != null) {
+            for (ServerMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+        }
+        return SCHEDULED;
+    }
+}
@@ -0,0 +1,129 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The clients currently connected to the server, indexed by the name they
+ * signed in with so that messages for a user can be routed without looking at
+ * every other client. A user may have several sessions open at once.
+ */
+class SessionRegistry {
+
+    /**
+     * Every client currently connected.
+     */
+    private final Set<ClientRunnable> sessions;
+
+    /**
+     * Clients which have a name, indexed by that name.
+     */
+    private final Map<String, Set<ClientRunnable>> byName;
+
+    /**
+     * Create a new, empty registry.
+     */
+    SessionRegistry() {
+        sessions = ConcurrentHashMap.newKeySet();
+        byName = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Add a newly connected client.
+     *
+     * @param client Client to add.
+     */
+    void add(ClientRunnable client) {
+        synchronized (client) {
+            sessions.add(client);
+            if (client.getName() != null) {
+                index(client.getName(), client);
+            }
+        }
+    }
+
+    /**
+     * Remove a client which has gone away.
+     *
+     * @param client Client to remove.
+     * @return True if the client was registered.
+     */
+    boolean remove(ClientRunnable client) {
+        synchronized (client) {
+            boolean removed = sessions.remove(client);
+            if (client.getName() != null) {
+                unindex(client.getName(), client);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Move a registered client from its old name to its new one. Clients which
+     * are not registered are ignored.
+     *
+     * @param client  Client whose name changed.
+     * @param oldName Name under which the client was indexed (may be null)
+     * @param newName Name under which the client must now be found (may be null)
+     */
+    void rename(ClientRunnable client, String oldName, String newName) {
+        synchronized (client) {
+            if (!sessions.contains(client)) {
+                return;
+            }
+            if (oldName != null) {
+                unindex(oldName, client);
+            }
+            if (newName != null) {
+                index(newName, client);
+            }
+        }
+    }
+
+    /**
+     * Return the sessions of the user with the given name.
+     *
+     * @param name Name of the user.
+     * @return The user's sessions (empty if the user is not connected).
+     */
+    Collection<ClientRunnable> named(String name) {
+        Set<ClientRunnable> named = name == null ? null : byName.get(name);
+        return named == null ? Collections.<ClientRunnable>emptySet() : named;
+    }
+
+    /**
+     * Return every connected client.
+     *
+     * @return All of the sessions.
+     */
+    Collection<ClientRunnable> all() {
+        return sessions;
+    }
+
+    /**
+     * Return the names of every user with at least one session.
+     *
+     * @return Names under which clients are indexed.
+     */
+    Set<String> names() {
+        return byName.keySet();
+    }
+
+    private void index(String name, ClientRunnable client) {
+        byName.compute(name, (key, named) -> {
+            Set<ClientRunnable> result = named == null ? ConcurrentHashMap.newKeySet() : named;
+            result.add(client);
+            return result;
+        });
+    }
+
+    private void unindex(String name, ClientRunnable client) {
+        byName.computeIfPresent(name, (key, named) -> {
+            named.remove(client);
+            return named.isEmpty() ? null : named;
+        });
+    }
+}
@@ -0,0 +1,255 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static edu.northeastern.ccs.im.server.ClientRunnable.LOGGER;
+
+/**
+ * Hashed timing wheel holding the deadlines of every session (inactivity
+ * timeouts and delayed special responses). Time is cut into ticks; a timeout
+ * is hashed to the slot of the tick at which it is due, along with the number of
+ * full turns of the wheel left before then. Scheduling and cancelling a timeout
+ * cost O(1), and each tick only looks at the timeouts in one slot, however many
+ * sessions there are.
+ * <p>
+ * Deadlines are measured with a monotonic clock, so changes to the wall clock
+ * neither fire nor delay them. Tasks run on the thread advancing the wheel and
+ * must therefore be short: sessions only raise a flag and ask to be run.
+ */
+final class TimingWheel {
+
+    /**
+     * Length of a tick of the shared wheel.
+     */
+    private static final long TICK_IN_MS = 100;
+
+    /**
+     * Number of slots of the shared wheel, i.e. about 51 seconds per turn.
+     */
+    private static final int SLOT_COUNT = 512;
+
+    /**
+     * Wheel shared by every session, created and started on first use.
+     */
+    private static TimingWheel instance;
+
+    /**
+     * A task waiting in the wheel.
+     */
+    static final class Timeout {
+
+        private final TimingWheel wheel;
+
+        private final Runnable task;
+
+        /**
+         * Number of turns of the wheel left before the timeout is due.
+         */
+        private long rounds;
+
+        /**
+         * Slot in which the timeout waits, or -1 once it expired or was cancelled.
+         */
+        private int slot;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * Take the timeout out of the wheel so that its task is never run.
+         *
+         * @return True if the timeout was still waiting; false if it already
+         * expired or was cancelled.
+         */
+        boolean cancel() {
+            return wheel.remove(this);
+        }
+    }
+
+    /**
+     * Source of the current time, in nanoseconds.
+     */
+    private final LongSupplier clock;
+
+    private final long tickInNanos;
+
+    private final int mask;
+
+    /**
+     * First timeout waiting in each slot; the rest follow through next.
+     */
+    private final Timeout[] slots;
+
+    /**
+     * Time at which the wheel started turning.
+     */
+    private final long start;
+
+    /**
+     * Number of the next tick to be processed.
+     */
+    private long tick;
+
+    /**
+     * Create a new wheel.
+     *
+     * @param clock       Monotonic source of the current time, in nanoseconds.
+     * @param tickInNanos Length of a tick, in nanoseconds.
+     * @param slotCount   Number of slots, which must be a power of two.
+     */
+    TimingWheel(LongSupplier clock, long tickInNanos, int slotCount) {
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two: " + slotCount);
+        }
+        this.clock = clock;
+        this.tickInNanos = tickInNanos;
+        mask = slotCount - 1;
+        slots = new Timeout[slotCount];
+        start = clock.getAsLong();
+    }
+
+    /**
+     * Return the wheel shared by every session, driven by a daemon thread.
+     *
+     * @return The shared wheel.
+     */
+    static synchronized TimingWheel getInstance() {
+        if (instance == null) {
+            instance = new TimingWheel(System::nanoTime, TimeUnit.MILLISECONDS.toNanos(TICK_IN_MS), SLOT_COUNT);
+            Thread driver = new Thread(instance::turn, "prattle-timer");
+            driver.setDaemon(true);
+            driver.start();
+        }
+        return instance;
+    }
+
+    /**
+     * Return the current time of the wheel's clock.
+     *
+     * @return Current time, in nanoseconds.
+     */
+    long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Run the given task once the delay has passed. The task is run no earlier
+     * than asked, and at most a tick later.
+     *
+     * @param task  Task to be run on the wheel's thread.
+     * @param delay Delay before the task is run.
+     * @param unit  Unit of the delay.
+     * @return Handle with which the task can be cancelled.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task);
+        long deadline = now() + unit.toNanos(Math.max(0, delay));
+        // Round up, so that the timeout never fires early.
+        long due = (deadline - start + tickInNanos - 1) / tickInNanos;
+        synchronized (this) {
+            due = Math.max(due, tick);
+            timeout.rounds = (due - tick) / slots.length;
+            timeout.slot = (int) (due & mask);
+            timeout.next = slots[timeout.slot];
+            if (timeout.next != null) {
+                timeout.next.prev = timeout;
+            }
+            slots[timeout.slot] = timeout;
+        }
+        return timeout;
+    }
+
+    /**
+     * Process every tick which has started by now, running the tasks which are
+     * due.
+     *
+     * @return Number of tasks run.
+     */
+    int advance() {
+        long now = now();
+        List<Timeout> expired = new ArrayList<>();
+        synchronized (this) {
+            while (now - start >= tick * tickInNanos) {
+                Timeout timeout = slots[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.rounds <= 0) {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    } else {
+                        timeout.rounds--;
+                    }
+                    timeout = next;
+                }
+                tick++;
+            }
+        }
+        // Run the tasks outside the lock, so that they may schedule new timeouts.
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LOGGER.info("Caught Exception: " + e.toString());
+            }
+        }
+        return expired.size();
+    }
+
+    /**
+     * Take the given timeout out of its slot.
+     *
+     * @param timeout Timeout to be removed.
+     * @return True if the timeout was still waiting.
+     */
+    private synchronized boolean remove(Timeout timeout) {
+        if (timeout.slot < 0) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+    }
+
+    /**
+     * Advance the wheel once per tick, forever.
+     */
+    private void turn() {
+        while (!Thread.currentThread().isInterrupted()) {
+            long sleep;
+            synchronized (this) {
+                sleep = start + tick * tickInNanos - now();
+            }
+            try {
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            advance();
+        }
+    }
+}
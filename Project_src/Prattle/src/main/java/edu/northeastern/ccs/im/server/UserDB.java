@@ -18,6 +18,10 @@ public class UserDB {
     private static final Logger LOGGER = Logger.getLogger(UserDB.class.getName());
     private SQLDB sqlDB;
     Connection connection;
+    /**
+     * userId and username of the users looked up so far
+     */
+    private final UserIdentityCache identities = UserIdentityCache.fromProperties();
     public UserDB(Connection con) {
         connection = con;
         sqlDB = SQLDB.getInstance();
@@ -131,6 +135,7 @@ public class UserDB {
                     int userCount = pStatement.executeUpdate();
                     flag = (userCount > 0);
                 }
+                identities.invalidate(userId, username);
             }
         } catch (SQLException e) {
             LOGGER.info("Caught SQL Exception:" + e.toString());
@@ -203,6 +208,8 @@ public class UserDB {
                 pStatement.setString(1, username);
                 int userCount = pStatement.executeUpdate();
                 flag = (userCount > 0);
+            } finally {
+                identities.invalidate(UserIdentityCache.NO_ID, username);
             }
         } catch (Exception e) {
             LOGGER.info("Caught SQL Exception:" + e.toString());
@@ -271,19 +278,24 @@ public class UserDB {
      * @return the member ID (which is an integer)
      */
     public int getUserID(String username) {
-        int userInformation = -1;
+        int userInformation = identities.getId(username);
+        if (userInformation != UserIdentityCache.NO_ID) {
+            return userInformation;
+        }
+        long stamp = identities.generation();
         try {
-            if (checkUser(username)) {
-                String sqlRetrieveGroup = "SELECT userId FROM users WHERE username=?";
-                try (PreparedStatement pStatement = connection.prepareStatement(sqlRetrieveGroup)) {
-                    pStatement.setString(1, username);
-                    try (ResultSet userSet = pStatement.executeQuery()) {
-                        while (userSet.next()) {
-                            userInformation = userSet.getInt("userId");
-                        }
+            String sqlRetrieveGroup = "SELECT userId FROM users WHERE username=?";
+            try (PreparedStatement pStatement = connection.prepareStatement(sqlRetrieveGroup)) {
+                pStatement.setString(1, username);
+                try (ResultSet userSet = pStatement.executeQuery()) {
+                    while (userSet.next()) {
+                        userInformation = userSet.getInt("userId");
                     }
                 }
             }
+            if (userInformation != UserIdentityCache.NO_ID) {
+                identities.put(userInformation, username, stamp);
+            }
         } catch (Exception e) {
             LOGGER.info("Caught SQL Exception:" + e.toString());
         }
@@ -299,7 +311,12 @@ public class UserDB {
      * @return the name of the user according to the ID
      */
     public String getUsername(int userId) {
-        String userInformation = "";
+        String userInformation = identities.getName(userId);
+        if (userInformation != null) {
+            return userInformation;
+        }
+        userInformation = "";
+        long stamp = identities.generation();
         try {
             String sqlRetrieveGroup = "SELECT username FROM users WHERE userId=?";
             try (PreparedStatement pStatement = connection.prepareStatement(sqlRetrieveGroup)) {
@@ -307,6 +324,7 @@ public class UserDB {
                 try (ResultSet userSet = pStatement.executeQuery()) {
                     while (userSet.next()) {
                         userInformation = userSet.getString("username");
+                        identities.put(userId, userInformation, stamp);
                     }
                 }
             }
@@ -340,6 +358,33 @@ public class UserDB {
 
     }
 
+    /**
+     * Retrieve in one query the account data checked while the user is signed in
+     *
+     * @param username name of the user
+     * @return the user's profile, or null if there is no such user
+     */
+    public UserProfile retrieveProfile(String username) {
+        UserProfile profile = null;
+        long stamp = identities.generation();
+        try {
+            String sqlRetrieveProfile = "SELECT userId, roleId, control, IP FROM users WHERE username=?";
+            try (PreparedStatement pStatement = connection.prepareStatement(sqlRetrieveProfile)) {
+                pStatement.setString(1, username);
+                try (ResultSet userSet = pStatement.executeQuery()) {
+                    while (userSet.next()) {
+                        profile = new UserProfile(userSet.getInt("userId"), userSet.getInt("roleId"),
+                                userSet.getInt("control"), userSet.getString("IP"));
+                        identities.put(profile.getUserId(), username, stamp);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.info("Caught SQL Exception:" + e.toString());
+        }
+        return profile;
+    }
+
     /**
      * check if a user is an agency or not
      *
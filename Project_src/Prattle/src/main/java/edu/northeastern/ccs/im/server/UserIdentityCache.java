@@ -0,0 +1,250 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the userId of each username and the username of each userId,
+ * so that resolving the sender of every row of a message history does not cost
+ * a query per row. Entries are loaded as they are looked up, dropped when the
+ * user is created or deleted, and the least recently used one is evicted when
+ * the cache is full.
+ * <p>
+ * Ids are kept in an open addressing table of ints, so looking up a name by id
+ * boxes nothing.
+ */
+final class UserIdentityCache {
+
+    /**
+     * Default number of users kept.
+     */
+    static final int DEFAULT_CAPACITY = 10000;
+
+    /**
+     * Id returned for names which are not cached.
+     */
+    static final int NO_ID = -1;
+
+    /**
+     * A cached user, linked in order of use (most recent at head).
+     */
+    private static final class Entry {
+        final int id;
+        final String name;
+        Entry prev;
+        Entry next;
+
+        Entry(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private final int capacity;
+
+    private final Map<String, Entry> byName = new HashMap<>();
+
+    /**
+     * Entries indexed by id with linear probing; the length is a power of two
+     * kept at least twice the capacity.
+     */
+    private Entry[] byId;
+
+    private Entry head;
+    private Entry tail;
+
+    /**
+     * Changed by every invalidation, so that a value read from the database
+     * before a user changed is not cached after it.
+     */
+    private long generation;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param capacity Largest number of users kept.
+     */
+    UserIdentityCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        int slots = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+        byId = new Entry[Math.max(2, slots)];
+    }
+
+    /**
+     * Create a cache sized through the system properties.
+     *
+     * @return An empty cache.
+     */
+    static UserIdentityCache fromProperties() {
+        return new UserIdentityCache(Integer.getInteger(ServerConstants.USER_CACHE_PROPERTY, DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Return the id of the given user.
+     *
+     * @param name Username.
+     * @return The user's id, or NO_ID if it is not cached.
+     */
+    synchronized int getId(String name) {
+        Entry entry = byName.get(name);
+        if (entry == null) {
+            return NO_ID;
+        }
+        touch(entry);
+        return entry.id;
+    }
+
+    /**
+     * Return the name of the given user.
+     *
+     * @param id User id.
+     * @return The username, or null if it is not cached.
+     */
+    synchronized String getName(int id) {
+        Entry entry = byId[find(id)];
+        if (entry == null) {
+            return null;
+        }
+        touch(entry);
+        return entry.name;
+    }
+
+    /**
+     * Return a stamp to be passed to {@link #put(int, String, long)} for a value
+     * about to be read from the database.
+     *
+     * @return The current generation.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Cache the given user, unless an invalidation happened since the stamp was
+     * taken (the value may then be stale).
+     *
+     * @param id    User id.
+     * @param name  Username.
+     * @param stamp Generation returned before the value was read.
+     */
+    synchronized void put(int id, String name, long stamp) {
+        if (stamp != generation || name == null) {
+            return;
+        }
+        removeEntry(byName.get(name));
+        removeEntry(byId[find(id)]);
+        Entry entry = new Entry(id, name);
+        byName.put(name, entry);
+        byId[find(id)] = entry;
+        linkFirst(entry);
+        if (byName.size() > capacity) {
+            removeEntry(tail);
+        }
+    }
+
+    /**
+     * Drop the given user, as well as whatever user holds the given id.
+     *
+     * @param id   User id (may be NO_ID).
+     * @param name Username (may be null).
+     */
+    synchronized void invalidate(int id, String name) {
+        generation++;
+        if (name != null) {
+            removeEntry(byName.get(name));
+        }
+        if (id != NO_ID) {
+            removeEntry(byId[find(id)]);
+        }
+    }
+
+    /**
+     * Return the number of users cached.
+     *
+     * @return Size of the cache.
+     */
+    synchronized int size() {
+        return byName.size();
+    }
+
+    /**
+     * Return the slot of the given id: the one holding it, or the empty slot
+     * where it would go.
+     */
+    private int find(int id) {
+        int mask = byId.length - 1;
+        int slot = mix(id) & mask;
+        while (byId[slot] != null && byId[slot].id != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void removeEntry(Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        byName.remove(entry.name);
+        removeId(find(entry.id));
+        unlink(entry);
+    }
+
+    /**
+     * Empty the slot and move back the entries after it which would no longer
+     * be found (backward shift deletion).
+     */
+    private void removeId(int slot) {
+        int mask = byId.length - 1;
+        byId[slot] = null;
+        int next = (slot + 1) & mask;
+        while (byId[next] != null) {
+            int home = mix(byId[next].id) & mask;
+            // Move the entry if its home is not between the hole and its slot.
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                byId[slot] = byId[next];
+                byId[next] = null;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void touch(Entry entry) {
+        if (entry != head) {
+            unlink(entry);
+            linkFirst(entry);
+        }
+    }
+
+    private void linkFirst(Entry entry) {
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        head = entry;
+        if (tail == null) {
+            tail = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            tail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+}
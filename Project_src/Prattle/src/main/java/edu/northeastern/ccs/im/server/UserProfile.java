@@ -0,0 +1,93 @@
+package edu.northeastern.ccs.im.server;
+
+/**
+ * Account data of a user which the server checks while serving its session:
+ * id, role, parental control flag and last known address. Instances are
+ * immutable; a change makes a new profile.
+ */
+final class UserProfile {
+
+    /**
+     * Role of administrators.
+     */
+    static final int ROLE_ADMIN = 0;
+
+    /**
+     * Role of plain users.
+     */
+    static final int ROLE_USER = 1;
+
+    /**
+     * Role of agencies allowed to wiretap.
+     */
+    static final int ROLE_AGENCY = 2;
+
+    private final int userId;
+
+    private final int role;
+
+    private final int control;
+
+    private final String ip;
+
+    /**
+     * Create a profile.
+     *
+     * @param userId  Id of the user.
+     * @param role    Role of the user (ROLE_ADMIN, ROLE_USER or ROLE_AGENCY).
+     * @param control 1 if the user's messages are filtered, 0 otherwise.
+     * @param ip      Address the user last connected from.
+     */
+    UserProfile(int userId, int role, int control, String ip) {
+        this.userId = userId;
+        this.role = role;
+        this.control = control;
+        this.ip = ip;
+    }
+
+    int getUserId() {
+        return userId;
+    }
+
+    int getRole() {
+        return role;
+    }
+
+    int getControl() {
+        return control;
+    }
+
+    String getIp() {
+        return ip;
+    }
+
+    /**
+     * Return whether the user is an administrator.
+     *
+     * @return True if the user's role is ROLE_ADMIN.
+     */
+    boolean isAdmin() {
+        return role == ROLE_ADMIN;
+    }
+
+    /**
+     * Return whether the messages the user sends or receives are filtered.
+     *
+     * @return True if parental control is on.
+     */
+    boolean isControlled() {
+        return control == 1;
+    }
+
+    UserProfile withRole(int newRole) {
+        return new UserProfile(userId, newRole, control, ip);
+    }
+
+    UserProfile withControl(int newControl) {
+        return new UserProfile(userId, role, newControl, ip);
+    }
+
+    UserProfile withIp(String newIp) {
+        return new UserProfile(userId, role, control, newIp);
+    }
+}
@@ -0,0 +1,105 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Profiles of the users with an open session. A session loads its user's
+ * profile once when it signs in and keeps the returned {@link Handle}; when an
+ * account changes through SQLDB the change is applied to the handle, so every
+ * session of that user sees it on its next check without querying the
+ * database.
+ */
+final class UserProfiles {
+
+    /**
+     * The current profile of a signed-in user, shared by the user's sessions.
+     */
+    static final class Handle {
+        private volatile UserProfile profile;
+
+        /**
+         * Number of sessions holding this handle. Guarded by the map entry.
+         */
+        private int sessions;
+
+        private Handle(UserProfile profile) {
+            this.profile = profile;
+        }
+
+        /**
+         * Return the user's current profile.
+         *
+         * @return The profile.
+         */
+        UserProfile get() {
+            return profile;
+        }
+    }
+
+    private final ConcurrentMap<String, Handle> handles = new ConcurrentHashMap<>();
+
+    /**
+     * Register a session of the given user, with the profile just read from the
+     * database.
+     *
+     * @param username Name of the user signing in.
+     * @param loaded   Profile read from the database.
+     * @return Handle through which the session reads the profile.
+     */
+    Handle open(String username, UserProfile loaded) {
+        return handles.compute(username, (name, handle) -> {
+            if (handle == null) {
+                handle = new Handle(loaded);
+            } else {
+                handle.profile = loaded;
+            }
+            handle.sessions++;
+            return handle;
+        });
+    }
+
+    /**
+     * Unregister a session; the profile is dropped with the last one.
+     *
+     * @param username Name of the user whose session ends.
+     */
+    void close(String username) {
+        handles.computeIfPresent(username, (name, handle) -> --handle.sessions > 0 ? handle : null);
+    }
+
+    /**
+     * Return the profile of a signed-in user.
+     *
+     * @param username Name of the user.
+     * @return The user's profile, or null if the user has no session.
+     */
+    UserProfile get(String username) {
+        Handle handle = username == null ? null : handles.get(username);
+        return handle == null ? null : handle.profile;
+    }
+
+    /**
+     * Apply a change made to the user's account to the profile its sessions
+     * see. Users without a session are ignored.
+     *
+     * @param username Name of the user.
+     * @param change   Change to apply.
+     */
+    void update(String username, UnaryOperator<UserProfile> change) {
+        handles.computeIfPresent(username, (name, handle) -> {
+            handle.profile = change.apply(handle.profile);
+            return handle;
+        });
+    }
+
+    /**
+     * Return the number of users with a session.
+     *
+     * @return Number of profiles held.
+     */
+    int size() {
+        return handles.size();
+    }
+}
@@ -0,0 +1,174 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the binary (v2) framing and its decoding alongside text frames
+ */
+class BinaryFrameTest {
+
+    private static final List<Message> MESSAGES = Arrays.asList(
+            Message.makeLoginMessage("bob", BinaryFrame.VERSION),
+            Message.makeBroadcastMessage("bob", "hello everyone"),
+            Message.makeDirectMessage("bob", "alice", "h\u00e9llo \u4e16\u754c"),
+            Message.makeBroadcastMessage("bob", ""),
+            Message.makeNoAcknowledgeMessage(),
+            Message.makeQuitMessage("bob"));
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] encode(List<Message> messages, boolean binary) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Message msg : messages) {
+            byte[] bytes = toBytes(binary ? msg.getBinaryFrame() : msg.getFrame());
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getReceiver(), actual.getReceiver());
+        assertEquals(expected.getText(), actual.getText());
+    }
+
+    @Test
+    void testRoundTrip() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        assertEquals(MESSAGES.size(), decoder.decode(ByteBuffer.wrap(encode(MESSAGES, true)), out));
+        assertFalse(decoder.hasPartialFrame());
+        for (Message msg : MESSAGES) {
+            assertSameMessage(msg, out.remove());
+        }
+    }
+
+    @Test
+    void testSplitAtEveryByte() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        for (byte b : encode(MESSAGES, true)) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}), out);
+        }
+        assertFalse(decoder.hasPartialFrame());
+        for (Message msg : MESSAGES) {
+            assertSameMessage(msg, out.remove());
+        }
+    }
+
+    @Test
+    void testMixedWithTextFrames() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        // Text frames can carry neither empty fields nor anything but ASCII.
+        List<Message> messages = Arrays.asList(
+                Message.makeLoginMessage("bob", BinaryFrame.VERSION),
+                Message.makeBroadcastMessage("bob", "hello everyone"),
+                Message.makeDirectMessage("bob", "alice", "hi"),
+                Message.makeQuitMessage("bob"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < messages.size(); i++) {
+            Message msg = messages.get(i);
+            byte[] frame = toBytes(i % 2 == 0 ? msg.getBinaryFrame() : msg.getFrame());
+            bytes.write(frame, 0, frame.length);
+        }
+        assertEquals(messages.size(), decoder.decode(ByteBuffer.wrap(bytes.toByteArray()), out));
+        for (Message msg : messages) {
+            assertSameMessage(msg, out.remove());
+        }
+    }
+
+    @Test
+    void testLayout() {
+        byte[] frame = toBytes(Message.makeDirectMessage("bob", "al", "").getBinaryFrame());
+        assertArrayEquals(new byte[]{(byte) (0x80 | 6), 0x07, 3, 'b', 'o', 'b', 2, 'a', 'l', 0}, frame);
+        byte[] nak = toBytes(Message.makeNoAcknowledgeMessage().getBinaryFrame());
+        assertArrayEquals(new byte[]{(byte) (0x80 | 3), 0x00}, nak);
+        // The text frame needs 17 bytes for what takes 2 here.
+        assertEquals("NAK 2 -- 2 -- 2 --", Message.makeNoAcknowledgeMessage().toString());
+    }
+
+    @Test
+    void testLongField() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        Message msg = Message.makeBroadcastMessage("bob", sb.toString());
+        byte[] frame = toBytes(msg.getBinaryFrame());
+        // 20000 needs a three byte varint.
+        assertEquals(2 + 1 + 3 + 3 + 20000, frame.length);
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(frame), out));
+        assertSameMessage(msg, out.remove());
+    }
+
+    @Test
+    void testVarintLongerThanFiveBytesIsRejected() {
+        FrameDecoder decoder = new FrameDecoder(Integer.MAX_VALUE);
+        Queue<Message> out = new ArrayDeque<>();
+        byte[] frame = {(byte) (0x80 | 6), 0x01, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x00};
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(frame), out));
+        assertTrue(decoder.isMalformed());
+    }
+
+    @Test
+    void testVarintPastIntIsRejected() {
+        FrameDecoder decoder = new FrameDecoder(Integer.MAX_VALUE);
+        Queue<Message> out = new ArrayDeque<>();
+        byte[] frame = {(byte) (0x80 | 6), 0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 'x'};
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(frame), out));
+        assertTrue(decoder.isMalformed());
+    }
+
+    @Test
+    void testFieldLongerThanLimitIsRejected() {
+        FrameDecoder decoder = new FrameDecoder(100);
+        Queue<Message> out = new ArrayDeque<>();
+        ByteBuffer in = ByteBuffer.allocate(64);
+        in.put(toBytes(Message.makeQuitMessage("bob").getBinaryFrame()));
+        // 200 as a varint, then bytes which are never framed.
+        in.put(new byte[]{(byte) (0x80 | 6), 0x01, (byte) 0xC8, 0x01, 'x', 'y'}).flip();
+        assertEquals(1, decoder.decode(in, out));
+        assertTrue(decoder.isMalformed());
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    void testUnknownTypeIsSkipped() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        byte[] unknown = {(byte) 0xFF, 0x04, 1, 'x'};
+        ByteBuffer in = ByteBuffer.allocate(64);
+        in.put(unknown).put(toBytes(Message.makeQuitMessage("bob").getBinaryFrame())).flip();
+        assertEquals(1, decoder.decode(in, out));
+        assertTrue(out.remove().terminate());
+        assertFalse(decoder.hasPartialFrame());
+    }
+
+    @Test
+    void testCacheClearedWithText() {
+        Message msg = Message.makeBroadcastMessage("bob", "first");
+        assertEquals(msg.getBinaryFrame(), msg.getBinaryFrame());
+        msg.setText("second");
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        decoder.decode(msg.getBinaryFrame(), out);
+        assertEquals("second", out.remove().getText());
+    }
+}
@@ -0,0 +1,55 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BufferPoolTest {
+
+    @Test
+    void testLeaseAndRelease() {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer first = pool.lease();
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+        assertEquals(1, pool.getLeased());
+        assertEquals(1, pool.getAllocated());
+
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(0, pool.getLeased());
+        assertEquals(1, pool.getIdle());
+
+        ByteBuffer second = pool.lease();
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1, pool.getAllocated());
+        assertEquals(2, pool.getLeases());
+        pool.release(second);
+    }
+
+    @Test
+    void testIdleBuffersAreBounded() {
+        BufferPool pool = new BufferPool(16, 2);
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.lease();
+        }
+        assertEquals(4, pool.getPeakLeased());
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(0, pool.getLeased());
+        assertEquals(2, pool.getIdle());
+        assertEquals(4, pool.getPeakLeased());
+        assertTrue(pool.toString().contains("idle=2"));
+    }
+
+    @Test
+    void testSharedPool() {
+        assertSame(BufferPool.getInstance(), BufferPool.getInstance());
+        assertEquals(64 * 1024, BufferPool.getInstance().getBufferSize());
+    }
+}
@@ -0,0 +1,62 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the table keyed by message handles
+ */
+class CommandTableTest {
+
+    @Test
+    void testRegisterAndGet() {
+        CommandTable<String> table = new CommandTable<>();
+        table.register("BCT", "broadcast");
+        table.register("DIR", "direct");
+        assertEquals("broadcast", table.get("BCT"));
+        assertEquals("direct", table.get(Message.makeDirectMessage("a", "b", "c")));
+        assertNull(table.get("GRP"));
+        assertNull(table.get(Message.makeQuitMessage("a")));
+        table.register("BCT", "replaced");
+        assertEquals("replaced", table.get(Message.makeBroadcastMessage("a", "b")));
+    }
+
+    @Test
+    void testBadHandles() {
+        CommandTable<String> table = new CommandTable<>();
+        assertNull(table.get((String) null));
+        assertNull(table.get("BC"));
+        assertNull(table.get("BCTX"));
+        assertNull(table.get("bct"));
+        assertNull(table.get("B-T"));
+        assertThrows(IllegalArgumentException.class, () -> table.register("b c", "x"));
+    }
+
+    @Test
+    void testEveryTypeHasItsOwnSlot() {
+        Set<Integer> slots = new HashSet<>();
+        for (Message.MessageType type : Message.MessageType.values()) {
+            int index = type.getIndex();
+            assertEquals(CommandTable.index(type.toString()), index);
+            assertTrue(index >= 0 && index < CommandTable.SIZE);
+            assertTrue(slots.add(index));
+        }
+        assertEquals(0, CommandTable.index("AAA"));
+        assertEquals(CommandTable.SIZE - 1, CommandTable.index("ZZZ"));
+    }
+
+    @Test
+    void testMakeMessageForEveryType() {
+        for (Message.MessageType type : Message.MessageType.values()) {
+            Message msg = Message.makeMessage(type.toString(), "src", "dst", "text");
+            assertNotNull(msg);
+            assertEquals(type, msg.getType());
+        }
+        assertNull(Message.makeMessage("XYZ", "src", "dst", "text"));
+        assertNull(Message.makeMessage("bct", "src", "dst", "text"));
+    }
+}
@@ -0,0 +1,90 @@
+package edu.northeastern.ccs.im;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares turning handles read off the network into messages with the chain of
+ * <code>String.equals</code> tests Message.makeMessage used to run against
+ * looking the handle up in a CommandTable. Handles are taken from every message
+ * type, so the chain pays for its later entries as well as its first ones.
+ * <p>
+ * Run with:
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=DispatchBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private String[] handles;
+
+    @org.openjdk.jmh.annotations.Setup
+    public void setup() {
+        Message.MessageType[] types = Message.MessageType.values();
+        handles = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            // New strings, as the decoder would hand us.
+            handles[i] = new String(types[i].toString().toCharArray());
+        }
+    }
+
+    @Benchmark
+    public void ifElseChain(Blackhole bh) {
+        for (String handle : handles) {
+            bh.consume(chain(handle, "sender", "receiver", "text"));
+        }
+    }
+
+    @Benchmark
+    public void commandTable(Blackhole bh) {
+        for (String handle : handles) {
+            bh.consume(Message.makeMessage(handle, "sender", "receiver", "text"));
+        }
+    }
+
+    /**
+     * The dispatch Message.makeMessage used before the CommandTable.
+     */
+    private static Message chain(String handle, String srcName, String dstName, String text) {
+        Message result = null;
+        if (handle.equals(Message.MessageType.QUIT.toString())) result = Message.makeQuitMessage(srcName);
+        else if (handle.equals(Message.MessageType.HELLO.toString())) result = Message.makeLoginMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.BROADCAST.toString())) result = Message.makeBroadcastMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.ACKNOWLEDGE.toString())) result = Message.makeAcknowledgeMessage(srcName);
+        else if (handle.equals(Message.MessageType.NO_ACKNOWLEDGE.toString())) result = Message.makeNoAcknowledgeMessage();
+        else if (handle.equals(Message.MessageType.DIRECT.toString())) result = Message.makeDirectMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.GROUP.toString())) result = Message.makeGroupMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.RETRIEVE.toString())) result = Message.makeRetrieveMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.DELETE.toString())) result = Message.makeDeleteMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.UPDATE.toString())) result = Message.makeUpdateMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.JOIN.toString())) result = Message.makeJoinMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.LEAVE.toString())) result = Message.makeLeaveMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.ROLE.toString())) result = Message.makeSetRoleMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.WIRETAPU.toString())) result = Message.makeWiretapUserMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.WIRETAPG.toString())) result = Message.makeWiretapGroupMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.APPROVE.toString())) result = Message.makeWiretapApproveMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.REJECT.toString())) result = Message.makeWiretapRejectMessage(srcName, dstName, text);
+        else if (handle.equals(Message.MessageType.RECALL.toString())) result = Message.makeRecallMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.LOGGER.toString())) result = Message.makeLoggerMessage(srcName);
+        else if (handle.equals(Message.MessageType.PCONTROL.toString())) result = Message.makePControlMessage(srcName, dstName);
+        else if (handle.equals(Message.MessageType.SIGNIN.toString())) result = Message.makeSigninMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.SIGNUP.toString())) result = Message.makeSignupMessage(srcName, text);
+        else if (handle.equals(Message.MessageType.HELP.toString())) result = Message.makeHelpMessage(srcName);
+        return result;
+    }
+}
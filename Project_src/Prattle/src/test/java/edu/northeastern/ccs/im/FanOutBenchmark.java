@@ -0,0 +1,65 @@
+package edu.northeastern.ccs.im;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding a broadcast once per recipient (as PrintNetNB used to, with
+ * <code>toString().getBytes()</code>) against encoding it once and handing each
+ * recipient a view of the shared frame. The cost of the shared frame should not
+ * grow with the number of recipients beyond the per-recipient view.
+ * <p>
+ * Run with:
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=FanOutBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int recipients;
+
+    private String text;
+
+    @org.openjdk.jmh.annotations.Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("a fairly ordinary chat message ");
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public void encodePerRecipient(Blackhole bh) {
+        Message msg = Message.makeBroadcastMessage("sender", text);
+        for (int i = 0; i < recipients; i++) {
+            bh.consume(ByteBuffer.wrap(msg.toString().getBytes()));
+        }
+    }
+
+    @Benchmark
+    public void sharedFrame(Blackhole bh) {
+        Message msg = Message.makeBroadcastMessage("sender", text);
+        for (int i = 0; i < recipients; i++) {
+            bh.consume(msg.getFrame());
+        }
+    }
+}
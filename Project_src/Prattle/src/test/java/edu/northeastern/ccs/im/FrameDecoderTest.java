@@ -0,0 +1,132 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameDecoderTest {
+
+    private static final List<Message> MESSAGES = Arrays.asList(
+            Message.makeLoginMessage("bob"),
+            Message.makeBroadcastMessage("bob", "hello everyone"),
+            Message.makeDirectMessage("bob", "alice", "hi"),
+            Message.makeQuitMessage("bob"));
+
+    private static byte[] encode(List<Message> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (Message msg : messages) {
+            sb.append(msg.toString());
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static void assertDecoded(List<Message> expected, Queue<Message> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Message msg : expected) {
+            assertEquals(msg.toString(), actual.remove().toString());
+        }
+    }
+
+    @Test
+    void testWholeFrames() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        assertEquals(MESSAGES.size(), decoder.decode(ByteBuffer.wrap(encode(MESSAGES)), out));
+        assertFalse(decoder.hasPartialFrame());
+        assertDecoded(MESSAGES, out);
+    }
+
+    @Test
+    void testFramesSplitAtEveryByte() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        byte[] bytes = encode(MESSAGES);
+        for (byte b : bytes) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}), out);
+        }
+        assertFalse(decoder.hasPartialFrame());
+        assertDecoded(MESSAGES, out);
+    }
+
+    @Test
+    void testPartialFrameIsKept() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        byte[] bytes = encode(MESSAGES);
+        int split = MESSAGES.get(0).toString().length() + 9;
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(bytes, 0, split), out));
+        assertTrue(decoder.hasPartialFrame());
+        assertEquals(MESSAGES.size() - 1, decoder.decode(ByteBuffer.wrap(bytes, split, bytes.length - split), out));
+        assertDecoded(MESSAGES, out);
+    }
+
+    @Test
+    void testLargeMessage() {
+        char[] text = new char[200000];
+        Arrays.fill(text, 'x');
+        List<Message> large = Arrays.asList(Message.makeBroadcastMessage("bob", new String(text)),
+                Message.makeQuitMessage("bob"));
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        ByteBuffer bytes = ByteBuffer.wrap(encode(large));
+        ByteBuffer chunk = ByteBuffer.allocateDirect(64 * 1024);
+        while (bytes.hasRemaining()) {
+            chunk.clear();
+            while (chunk.hasRemaining() && bytes.hasRemaining()) {
+                chunk.put(bytes.get());
+            }
+            chunk.flip();
+            decoder.decode(chunk, out);
+        }
+        assertDecoded(large, out);
+    }
+
+    @Test
+    void testNullFields() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        decoder.decode(ByteBuffer.wrap("BYE 3 bob 0  0 ".getBytes()), out);
+        Message msg = out.remove();
+        assertTrue(msg.terminate());
+        assertEquals("bob", msg.getSender());
+        assertNull(msg.getReceiver());
+    }
+
+    @Test
+    void testOverflowingLengthIsRejected() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        byte[] bytes = ("HLO 3 bob 2 -- 2 -- BCT 99999999999999999999 x").getBytes();
+        assertEquals(1, decoder.decode(ByteBuffer.wrap(bytes), out));
+        assertTrue(decoder.isMalformed());
+        assertEquals(0, decoder.decode(ByteBuffer.wrap(encode(MESSAGES)), out));
+        assertEquals(1, out.size());
+    }
+
+    @Test
+    void testFieldLongerThanLimitIsRejected() {
+        FrameDecoder decoder = new FrameDecoder(5);
+        Queue<Message> out = new ArrayDeque<>();
+        assertEquals(1, decoder.decode(ByteBuffer.wrap("BCT 3 bob 2 -- 5 hello".getBytes()), out));
+        assertFalse(decoder.isMalformed());
+        ByteBuffer bad = ByteBuffer.wrap("BCT 3 bob 2 -- 6 hello!".getBytes());
+        assertEquals(0, decoder.decode(bad, out));
+        assertTrue(decoder.isMalformed());
+        assertFalse(bad.hasRemaining());
+    }
+
+    @Test
+    void testHugeLengthIsRejectedBeforeItsBytes() {
+        FrameDecoder decoder = new FrameDecoder();
+        Queue<Message> out = new ArrayDeque<>();
+        decoder.decode(ByteBuffer.wrap("BCT 1999999999 ".getBytes()), out);
+        assertTrue(decoder.isMalformed());
+        assertTrue(out.isEmpty());
+    }
+}
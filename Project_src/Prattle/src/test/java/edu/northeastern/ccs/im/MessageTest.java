@@ -2,6 +2,8 @@ package edu.northeastern.ccs.im;
 
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 
@@ -54,6 +56,20 @@ class MessageTest {
         assertEquals("PCL 3 abc 3 tim 2 --", message.toString());
     }
 
+    @Test
+    void testFilteredLeavesOriginal() {
+        Message message = Message.makeBroadcastMessage("tim", "you ass");
+        ByteBuffer frame = message.getFrame();
+        Message filtered = message.filtered();
+        assertEquals("you ***", filtered.getText());
+        assertEquals("tim", filtered.getSender());
+        assertTrue(filtered.isBroadcastMessage());
+        assertEquals("you ass", message.getText());
+        assertEquals(frame, message.getFrame());
+        Message clean = Message.makeBroadcastMessage("tim", "hello");
+        assertSame(clean, clean.filtered());
+    }
+
     @Test
     void testRecall() {
         Message message = Message.makeRecallMessage("abc", "hi");
@@ -143,4 +159,23 @@ class MessageTest {
 
 
 
-}
\ No newline at end of file
+
+    @Test
+    void testSharedFrame() {
+        Message message = Message.makeBroadcastMessage("tim", "hello");
+        ByteBuffer first = message.getFrame();
+        ByteBuffer second = message.getFrame();
+        assertTrue(first.isReadOnly());
+        byte[] bytes = new byte[first.remaining()];
+        first.get(bytes);
+        assertEquals(message.toString(), new String(bytes));
+        // Each caller gets its own position over the same bytes.
+        assertEquals(bytes.length, second.remaining());
+
+        message.setText("bye");
+        ByteBuffer changed = message.getFrame();
+        bytes = new byte[changed.remaining()];
+        changed.get(bytes);
+        assertEquals("BCT 3 tim 2 -- 3 bye", new String(bytes));
+    }
+}
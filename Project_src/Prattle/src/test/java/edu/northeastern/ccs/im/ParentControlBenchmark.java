@@ -0,0 +1,90 @@
+package edu.northeastern.ccs.im;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares filtering a chat message against the real badwords.txt by matching
+ * every word against every entry as a regular expression, as ParentControl used
+ * to, with the compiled WordFilter. The message mixes clean words with a few bad
+ * ones, like the messages the filter runs on when broadcasting.
+ * <p>
+ * Run with:
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.openjdk.jmh.Main -Dexec.args=ParentControlBenchmark</code>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParentControlBenchmark {
+
+    private static final String MESSAGE = "Hey, did you see what that ass said in the group chat today? "
+            + "Honestly I think he is a complete jerk-off and I am not going back there, damn it.";
+
+    private String[] words;
+
+    private WordFilter filter;
+
+    @org.openjdk.jmh.annotations.Setup
+    public void setup() throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                ParentControlBenchmark.class.getClassLoader().getResourceAsStream("badwords.txt")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                entries.add(line);
+            }
+        }
+        words = entries.toArray(new String[0]);
+        filter = WordFilter.compile(entries);
+    }
+
+    @Benchmark
+    public String regexPerEntry() {
+        StringBuilder sb = new StringBuilder();
+        for (String word : MESSAGE.split("\\s")) {
+            String cuss = word.toLowerCase().replaceAll("\\W+", "");
+            checkPatterns(word, cuss, sb);
+            sb.append(' ');
+        }
+        return sb.substring(0, sb.length() - 1);
+    }
+
+    @Benchmark
+    public String compiledFilter() {
+        return filter.filter(MESSAGE);
+    }
+
+    /**
+     * The matching ParentControl.filterBadWords used before WordFilter.
+     */
+    private void checkPatterns(final String word, final String cuss, final StringBuilder sb) {
+        for (String pattern : words) {
+            if (cuss.matches(pattern)) {
+                char[] stars = new char[cuss.length()];
+                Arrays.fill(stars, '*');
+                sb.append(word.replaceAll("\\w+", new String(stars)));
+                return;
+            }
+        }
+        sb.append(word);
+    }
+}
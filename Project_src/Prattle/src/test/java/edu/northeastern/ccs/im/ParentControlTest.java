@@ -1,13 +1,41 @@
 package edu.northeastern.ccs.im;
 
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 
 
 class ParentControlTest {
 
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dir = Files.createTempDirectory("badwords");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
 
     @Test
     void filterBadWords() {
@@ -15,4 +43,59 @@ class ParentControlTest {
         assertEquals("***", pc.filterBadWords("ass"));
     }
 
-}
\ No newline at end of file
+    @Test
+    void testSingleInstance() {
+        assertSame(ParentControl.getInstance(), ParentControl.getInstance());
+    }
+
+    @Test
+    void testReloadSwapsDictionary() throws IOException {
+        Path file = dir.resolve("badwords.txt");
+        Files.write(file, Collections.singletonList("darn"), StandardCharsets.UTF_8);
+        ParentControl pc = new ParentControl(file);
+        try {
+            assertEquals("****", pc.filterBadWords("darn"));
+            assertEquals("heck", pc.filterBadWords("heck"));
+            Files.write(file, Arrays.asList("heck", "drat"), StandardCharsets.UTF_8);
+            assertEquals(2, pc.reload());
+            assertEquals("darn ****", pc.filterBadWords("darn heck"));
+        } finally {
+            pc.close();
+        }
+    }
+
+    @Test
+    void testMissingFileKeepsDictionary() throws IOException {
+        Path file = dir.resolve("badwords.txt");
+        Files.write(file, Collections.singletonList("darn"), StandardCharsets.UTF_8);
+        ParentControl pc = new ParentControl(file);
+        try {
+            Files.delete(file);
+            assertEquals(1, pc.reload());
+            assertEquals("****", pc.filterBadWords("darn"));
+        } finally {
+            pc.close();
+        }
+    }
+
+    @Test
+    void testFileChangeIsPickedUp() throws IOException, InterruptedException {
+        Path file = dir.resolve("badwords.txt");
+        Files.write(file, Collections.singletonList("darn"), StandardCharsets.UTF_8);
+        ParentControl pc = new ParentControl(file);
+        try {
+            Path next = dir.resolve("badwords.tmp");
+            Files.write(next, Collections.singletonList("heck"), StandardCharsets.UTF_8);
+            Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!"****".equals(pc.filterBadWords("heck")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("****", pc.filterBadWords("heck"));
+            assertEquals("darn", pc.filterBadWords("darn"));
+        } finally {
+            pc.close();
+        }
+    }
+
+}
@@ -3,7 +3,14 @@ package edu.northeastern.ccs.im;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,4 +35,83 @@ class PrintNetNBTest {
 
         scanner.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSlowReaderKeepsWholeMessages() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress(4534));
+            try (SocketChannel reader = SocketChannel.open(new InetSocketAddress("localhost", 4534));
+                 SocketChannel writer = server.accept()) {
+                writer.configureBlocking(false);
+                PrintNetNB printer = new PrintNetNB(writer);
+
+                char[] text = new char[100000];
+                Arrays.fill(text, 'x');
+                Message msg = Message.makeBroadcastMessage("tim", new String(text));
+                int count = 100;
+                for (int i = 0; i < count; i++) {
+                    assertTrue(printer.enqueue(msg));
+                }
+                // Nobody is reading, so the socket cannot take all of it.
+                assertTrue(printer.flush());
+                assertTrue(printer.hasPendingOutput());
+
+                String expected = msg.toString();
+                ByteBuffer received = ByteBuffer.allocate(expected.length() * count);
+                while (received.hasRemaining()) {
+                    assertTrue(reader.read(received) > 0);
+                    assertTrue(printer.flush());
+                }
+                assertFalse(printer.hasPendingOutput());
+                byte[] bytes = received.array();
+                for (int i = 0; i < count; i++) {
+                    assertEquals(expected, new String(bytes, i * expected.length(), expected.length()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testClosedConnectionFails() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress(4535));
+            SocketChannel reader = SocketChannel.open(new InetSocketAddress("localhost", 4535));
+            SocketChannel writer = server.accept();
+            PrintNetNB printer = new PrintNetNB(writer);
+            reader.close();
+            writer.close();
+            assertFalse(printer.print(Message.makeBroadcastMessage("tim", "tam")));
+            assertFalse(printer.enqueue(Message.makeBroadcastMessage("tim", "tam")));
+        }
+    }
+
+    @Test
+    void testBinaryFramesAfterNegotiation() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress(4537));
+            try (SocketChannel reader = SocketChannel.open(new InetSocketAddress("localhost", 4537));
+                 SocketChannel writer = server.accept()) {
+                PrintNetNB printer = new PrintNetNB(writer);
+                Message text = Message.makeBroadcastMessage("tim", "tam");
+                Message binary = Message.makeQuitMessage("tim");
+                assertFalse(printer.isBinary());
+                assertTrue(printer.print(text));
+                printer.useBinaryFrames();
+                assertTrue(printer.isBinary());
+                assertTrue(printer.print(binary));
+
+                // The binary quit is the type byte, the flags and "tim" with its length.
+                ByteBuffer received = ByteBuffer.allocate(text.toString().length() + 6);
+                while (received.hasRemaining()) {
+                    assertTrue(reader.read(received) > 0);
+                }
+                received.flip();
+                Queue<Message> out = new ArrayDeque<>();
+                assertEquals(2, new FrameDecoder().decode(received, out));
+                assertEquals(text.toString(), out.remove().toString());
+                assertEquals(binary.toString(), out.remove().toString());
+                assertFalse(received.hasRemaining());
+            }
+        }
+    }
+}
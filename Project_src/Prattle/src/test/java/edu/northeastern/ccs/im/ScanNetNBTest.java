@@ -1,16 +1,28 @@
 package edu.northeastern.ccs.im;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.channels.SocketChannel;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.time.Duration;
+
 import java.nio.channels.spi.SelectorProvider;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -82,4 +94,109 @@ class ScanNetNBTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testResetConnectionEndsStream() throws Exception {
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.socket().bind(new InetSocketAddress(0));
+            Socket peer = new Socket("localhost", serverSocket.socket().getLocalPort());
+            try (SocketChannel client = serverSocket.accept()) {
+                client.configureBlocking(false);
+                ScanNetNB input = new ScanNetNB(client);
+                // Closing with a zero linger resets the connection.
+                peer.setSoLinger(true, 0);
+                peer.close();
+                long giveUp = System.currentTimeMillis() + 5000;
+                while (!input.isEndOfStream() && System.currentTimeMillis() < giveUp) {
+                    assertFalse(input.hasNextMessage());
+                    Thread.sleep(20);
+                }
+                assertTrue(input.isEndOfStream());
+            }
+        }
+    }
+
+    /* Number of idle connections a single server process must be able to hold. */
+    private static final int CONNECTIONS = 10000;
+
+    /* Descriptors the JVM may open for itself while the connections are made. */
+    private static final int DESCRIPTOR_SLACK = 32;
+
+    /**
+     * opens 10000 connections, so it is tagged slow and left out of the default build;
+     * run it with -DexcludedGroups=none
+     */
+    @Test
+    @Tag("slow")
+    public void testTenThousandIdleConnections() throws Exception {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        assumeTrue(os instanceof UnixOperatingSystemMXBean);
+        UnixOperatingSystemMXBean unix = (UnixOperatingSystemMXBean) os;
+        assumeTrue(unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount() > CONNECTIONS + 100);
+
+        List<SocketChannel> accepted = new ArrayList<>();
+        List<ScanNetNB> scanners = new ArrayList<>();
+        try (ServerSocketChannel serverSocket = ServerSocketChannel.open()) {
+            serverSocket.socket().bind(new InetSocketAddress(0), 1024);
+            int port = serverSocket.socket().getLocalPort();
+            long before = unix.getOpenFileDescriptorCount();
+            // The client ends live in another process so that only the server ends count here.
+            String classpath = new File(LoopbackClients.class.getProtectionDomain().getCodeSource()
+                    .getLocation().toURI()).getPath();
+            Process clients = new ProcessBuilder(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-cp", classpath, LoopbackClients.class.getName(),
+                    Integer.toString(port), Integer.toString(CONNECTIONS))
+                    .redirectErrorStream(true).start();
+            try {
+                assertTimeoutPreemptively(Duration.ofMinutes(1), () -> {
+                    for (int i = 0; i < CONNECTIONS; i++) {
+                        SocketChannel client = serverSocket.accept();
+                        client.configureBlocking(false);
+                        accepted.add(client);
+                        scanners.add(new ScanNetNB(client));
+                    }
+                });
+                BufferedReader out = new BufferedReader(new InputStreamReader(clients.getInputStream()));
+                assertEquals(LoopbackClients.READY, out.readLine());
+                // One descriptor per connection, and nothing else per connection.
+                long opened = unix.getOpenFileDescriptorCount() - before;
+                assertTrue(opened <= CONNECTIONS + DESCRIPTOR_SLACK, opened + " descriptors for " + CONNECTIONS + " connections");
+                for (ScanNetNB scanner : scanners) {
+                    assertFalse(scanner.hasNextMessage());
+                }
+            } finally {
+                clients.getOutputStream().close();
+                clients.waitFor();
+            }
+        } finally {
+            for (SocketChannel client : accepted) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the requested number of idle connections to a local port and holds
+     * them until its standard input is closed.
+     */
+    public static class LoopbackClients {
+        static final String READY = "READY";
+
+        public static void main(String[] args) throws IOException {
+            int port = Integer.parseInt(args[0]);
+            int count = Integer.parseInt(args[1]);
+            List<SocketChannel> channels = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                channels.add(SocketChannel.open(new InetSocketAddress("localhost", port)));
+            }
+            System.out.println(READY);
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // Wait for the test to finish with the connections.
+            }
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+}
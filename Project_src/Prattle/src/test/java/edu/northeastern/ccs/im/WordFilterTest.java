@@ -0,0 +1,102 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the compiled bad word dictionary
+ */
+class WordFilterTest {
+
+    private final WordFilter filter = WordFilter.compile(Arrays.asList("ass", "darn", "bi+ch", "a$$", "Upper", "two words"));
+
+    @Test
+    void testPlainWords() {
+        assertEquals("***", filter.filter("ass"));
+        assertEquals("you ***!", filter.filter("you ass!"));
+        assertEquals("****", filter.filter("DaRn"));
+        assertEquals("class act", filter.filter("class act"));
+    }
+
+    @Test
+    void testPatterns() {
+        assertEquals("****** here", filter.filter("biiich here"));
+        assertEquals("*", filter.filter("a"));
+        assertEquals("a1", filter.filter("a1"));
+    }
+
+    @Test
+    void testUnmatchableEntriesAreDropped() {
+        assertEquals(4, filter.size());
+        assertEquals("upper", filter.filter("upper"));
+    }
+
+    @Test
+    void testPunctuationInsideWord() {
+        // Each run of word characters becomes as many stars as the whole stripped word.
+        assertEquals("***-***", filter.filter("a-ss"));
+        assertEquals("'****'", filter.filter("'darn'"));
+    }
+
+    @Test
+    void testSpacing() {
+        assertEquals("x  y", filter.filter("x\t\ty"));
+        assertEquals(" hi  there", filter.filter(" hi\n there  \t"));
+        assertEquals("", filter.filter("   "));
+        assertEquals("", filter.filter(""));
+        assertNull(filter.filter(null));
+    }
+
+    @Test
+    void testSameAsRegexFilterOnRealList() throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                WordFilterTest.class.getClassLoader().getResourceAsStream("badwords.txt")))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                entries.add(line);
+            }
+        }
+        WordFilter real = WordFilter.compile(entries);
+        String[] words = entries.toArray(new String[0]);
+        List<String> messages = new ArrayList<>();
+        for (String entry : entries) {
+            messages.add("well " + entry + ", said (" + entry.toUpperCase() + ")!");
+        }
+        messages.add("Hello there, how are you doing today?");
+        messages.add("a  b\tc");
+        messages.add("shiiit l3iiich masterbattt c0c0k");
+        for (String message : messages) {
+            assertEquals(regexFilter(words, message), real.filter(message), message);
+        }
+    }
+
+    /**
+     * The filter ParentControl ran before the dictionary was compiled.
+     */
+    private static String regexFilter(String[] words, String message) {
+        StringBuilder sb = new StringBuilder();
+        for (String word : message.split("\\s")) {
+            String cuss = word.toLowerCase().replaceAll("\\W+", "");
+            String out = word;
+            for (String pattern : words) {
+                if (cuss.matches(pattern)) {
+                    char[] stars = new char[cuss.length()];
+                    Arrays.fill(stars, '*');
+                    out = word.replaceAll("\\w+", new String(stars));
+                    break;
+                }
+            }
+            sb.append(out).append(' ');
+        }
+        return sb.substring(0, sb.length() - 1);
+    }
+}
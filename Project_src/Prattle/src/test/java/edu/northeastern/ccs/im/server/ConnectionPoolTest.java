@@ -0,0 +1,342 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the pool of database connections
+ */
+class ConnectionPoolTest {
+
+    /* Time of the pool's clock, moved by hand. */
+    private long now = 1000;
+
+    /* Connections opened by the factory, in order. */
+    private final List<FakeConnection> opened = new ArrayList<>();
+
+    /**
+     * Connection to nowhere, recording whether it was closed.
+     */
+    private static final class FakeConnection {
+        boolean closed;
+        boolean valid = true;
+        String failWith;
+        /* SQL of the statements prepared on the connection, and those closed. */
+        final List<String> prepared = new ArrayList<>();
+        final List<String> closedStatements = new ArrayList<>();
+        final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            closed = true;
+                            return null;
+                        case "isClosed":
+                            return closed;
+                        case "isValid":
+                            return valid;
+                        case "prepareStatement":
+                            prepared.add((String) args[0]);
+                            return statement((String) args[0]);
+                        default:
+                            return null;
+                    }
+                });
+
+        private PreparedStatement statement(String sql) {
+            return (PreparedStatement) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("executeUpdate")) {
+                            if (failWith != null) {
+                                throw new SQLException("failed", failWith);
+                            }
+                            return 1;
+                        }
+                        if (method.getName().equals("getConnection")) {
+                            return connection;
+                        }
+                        if (method.getName().equals("close")) {
+                            closedStatements.add(sql);
+                        }
+                        return null;
+                    });
+        }
+    }
+
+    private ConnectionPool newPool(int size, long timeoutMs) {
+        return newPool(size, timeoutMs, ConnectionPool.DEFAULT_STATEMENT_CACHE);
+    }
+
+    private ConnectionPool newPool(int size, long timeoutMs, int statements) {
+        return new ConnectionPool(() -> {
+            FakeConnection fake = new FakeConnection();
+            synchronized (opened) {
+                opened.add(fake);
+            }
+            return fake.connection;
+        }, size, timeoutMs, 1000, statements, () -> now);
+    }
+
+    private static void run(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.executeUpdate();
+        }
+    }
+
+    @Test
+    void testNestedStatementsShareConnection() throws SQLException {
+        ConnectionPool pool = newPool(1, 0);
+        Connection shared = pool.getConnection();
+        try (PreparedStatement outer = shared.prepareStatement("a")) {
+            try (PreparedStatement inner = shared.prepareStatement("b")) {
+                assertEquals(1, inner.executeUpdate());
+            }
+            assertEquals(0, pool.getIdleCount());
+            assertSame(shared, outer.getConnection());
+        }
+        assertEquals(1, opened.size());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void testConnectionIsReused() throws SQLException {
+        ConnectionPool pool = newPool(4, 0);
+        for (int i = 0; i < 5; i++) {
+            try (PreparedStatement statement = pool.getConnection().prepareStatement("a")) {
+                statement.executeUpdate();
+            }
+        }
+        assertEquals(1, opened.size());
+        assertEquals(1, pool.getSize());
+    }
+
+    @Test
+    void testThreadsRunInParallel() throws Exception {
+        ConnectionPool pool = newPool(2, 5000);
+        ConnectionPool.Lease mine = pool.borrow();
+        AtomicReference<Connection> theirs = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                ConnectionPool.Lease lease = pool.borrow();
+                theirs.set(lease.getConnection());
+                lease.release();
+            } catch (SQLException e) {
+                fail(e);
+            }
+        });
+        other.start();
+        other.join();
+        assertNotSame(mine.getConnection(), theirs.get());
+        assertEquals(0, pool.getWaitCount());
+        mine.release();
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    void testBorrowWaitsForRelease() throws Exception {
+        ConnectionPool pool = new ConnectionPool(() -> new FakeConnection().connection, 1, 5000, 1000);
+        ConnectionPool.Lease mine = pool.borrow();
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Connection> theirs = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            started.countDown();
+            try {
+                ConnectionPool.Lease lease = pool.borrow();
+                theirs.set(lease.getConnection());
+                lease.release();
+            } catch (SQLException e) {
+                fail(e);
+            }
+        });
+        other.start();
+        started.await();
+        Thread.sleep(50);
+        mine.release();
+        other.join(TimeUnit.SECONDS.toMillis(5));
+        assertSame(mine.getConnection(), theirs.get());
+        assertEquals(1, pool.getWaitCount());
+    }
+
+    @Test
+    void testBorrowTimesOut() throws Exception {
+        ConnectionPool pool = new ConnectionPool(() -> new FakeConnection().connection, 1, 20, 1000);
+        ConnectionPool.Lease mine = pool.borrow();
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        Thread other = new Thread(() -> {
+            try {
+                pool.borrow().release();
+            } catch (SQLException e) {
+                failure.set(e);
+            }
+        });
+        other.start();
+        other.join(TimeUnit.SECONDS.toMillis(5));
+        assertNotNull(failure.get());
+        assertEquals(1, pool.getTimeoutCount());
+        mine.release();
+    }
+
+    @Test
+    void testBrokenConnectionIsDiscarded() {
+        ConnectionPool pool = newPool(2, 0);
+        assertThrows(SQLException.class, () -> {
+            try (PreparedStatement statement = pool.getConnection().prepareStatement("a")) {
+                opened.get(0).failWith = "08S01";
+                statement.executeUpdate();
+            }
+        });
+        assertTrue(opened.get(0).closed);
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    void testQueryErrorKeepsConnection() {
+        ConnectionPool pool = newPool(2, 0);
+        assertThrows(SQLException.class, () -> {
+            try (PreparedStatement statement = pool.getConnection().prepareStatement("a")) {
+                opened.get(0).failWith = "42000";
+                statement.executeUpdate();
+            }
+        });
+        assertFalse(opened.get(0).closed);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void testStaleConnectionIsValidated() throws SQLException {
+        ConnectionPool pool = newPool(2, 0);
+        pool.borrow().release();
+        opened.get(0).valid = false;
+        now += TimeUnit.SECONDS.toNanos(10);
+        ConnectionPool.Lease lease = pool.borrow();
+        assertEquals(2, opened.size());
+        assertTrue(opened.get(0).closed);
+        assertSame(opened.get(1).connection, lease.getConnection());
+        lease.release();
+    }
+
+    @Test
+    void testEvictIdle() throws SQLException {
+        ConnectionPool pool = newPool(2, 0);
+        pool.borrow().release();
+        now += TimeUnit.MILLISECONDS.toNanos(500);
+        assertEquals(0, pool.evictIdle());
+        now += TimeUnit.MILLISECONDS.toNanos(600);
+        assertEquals(1, pool.evictIdle());
+        assertTrue(opened.get(0).closed);
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    void testFailedOpenFailsFastThenRetries() {
+        int[] attempts = {0};
+        ConnectionPool pool = new ConnectionPool(() -> {
+            attempts[0]++;
+            throw new SQLException("unreachable");
+        }, 2, 0, 1000, () -> now);
+        assertThrows(SQLException.class, pool::borrow);
+        assertThrows(SQLException.class, pool::borrow);
+        assertEquals(1, attempts[0]);
+        now += TimeUnit.SECONDS.toNanos(2);
+        assertThrows(SQLException.class, pool::borrow);
+        assertEquals(2, attempts[0]);
+        assertEquals(0, pool.getSize());
+    }
+
+    @Test
+    void testClosedPoolRefusesLeases() throws SQLException {
+        ConnectionPool pool = newPool(2, 0);
+        pool.borrow().release();
+        pool.close();
+        assertTrue(opened.get(0).closed);
+        assertTrue(pool.getConnection().isClosed());
+        assertThrows(SQLException.class, pool::borrow);
+    }
+
+    @Test
+    void testCloseCancelsEviction() {
+        TimingWheel wheel = new TimingWheel(() -> now, TimeUnit.MILLISECONDS.toNanos(10), 8);
+        ConnectionPool pool = newPool(2, 0);
+        pool.scheduleEviction(wheel);
+        now += TimeUnit.MILLISECONDS.toNanos(600);
+        assertEquals(1, wheel.advance());
+        pool.close();
+        now += TimeUnit.MILLISECONDS.toNanos(600);
+        assertEquals(0, wheel.advance());
+    }
+
+    @Test
+    void testStatementIsReused() throws SQLException {
+        ConnectionPool pool = newPool(1, 0);
+        run(pool.getConnection(), "a");
+        run(pool.getConnection(), "a");
+        run(pool.getConnection(), "b");
+        assertEquals(2, opened.get(0).prepared.size());
+        assertTrue(opened.get(0).closedStatements.isEmpty());
+        assertEquals(1, pool.getStatementHits());
+        assertEquals(2, pool.getStatementMisses());
+    }
+
+    @Test
+    void testNestedSameStatementIsNotShared() throws SQLException {
+        ConnectionPool pool = newPool(1, 0);
+        try (PreparedStatement outer = pool.getConnection().prepareStatement("a")) {
+            run(pool.getConnection(), "a");
+            assertEquals(1, outer.executeUpdate());
+        }
+        // The nested one was prepared apart and closed; the cached one stays open.
+        assertEquals(2, opened.get(0).prepared.size());
+        assertEquals(1, opened.get(0).closedStatements.size());
+        run(pool.getConnection(), "a");
+        assertEquals(1, pool.getStatementHits());
+    }
+
+    @Test
+    void testBorrowedLeaseRunsCachedStatements() throws SQLException {
+        ConnectionPool pool = newPool(2, 0);
+        // A transaction holds its lease and runs its statements through the shared connection.
+        for (int i = 0; i < 2; i++) {
+            ConnectionPool.Lease lease = pool.borrow();
+            try {
+                run(pool.getConnection(), "insert");
+                assertEquals(0, pool.getIdleCount());
+            } finally {
+                lease.release();
+            }
+        }
+        assertEquals(1, opened.size());
+        assertEquals(1, opened.get(0).prepared.size());
+        assertEquals(1, pool.getStatementHits());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    void testLeastRecentlyUsedStatementIsClosed() throws SQLException {
+        ConnectionPool pool = newPool(1, 0, 2);
+        run(pool.getConnection(), "a");
+        run(pool.getConnection(), "b");
+        run(pool.getConnection(), "a");
+        run(pool.getConnection(), "c");
+        assertEquals(1, opened.get(0).closedStatements.size());
+        assertEquals("b", opened.get(0).closedStatements.get(0));
+    }
+
+    @Test
+    void testCacheCanBeTurnedOff() throws SQLException {
+        ConnectionPool pool = newPool(1, 0, 0);
+        run(pool.getConnection(), "a");
+        run(pool.getConnection(), "a");
+        assertEquals(2, opened.get(0).closedStatements.size());
+        assertEquals(0, pool.getStatementHits());
+    }
+}
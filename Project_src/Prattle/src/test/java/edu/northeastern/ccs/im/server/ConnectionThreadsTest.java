@@ -0,0 +1,105 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for serving each connection from its own thread
+ */
+class ConnectionThreadsTest {
+    private static final int port = 4533;
+
+    private ServerSocketChannel serverSocket;
+    private ConnectionThreads threads;
+
+    @BeforeEach
+    void setup() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.socket().bind(new InetSocketAddress(port));
+        threads = new ConnectionThreads();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        threads.shutdown();
+        serverSocket.close();
+    }
+
+    private static void waitUntilClosed(ClientRunnable client) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (!client.isClosed() && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void testQueuedMessageIsDelivered() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(2000);
+            ClientRunnable client = new ClientRunnable(serverSocket.accept(), true);
+            threads.serve(client);
+            assertEquals(1, threads.getSessionCount());
+
+            Message msg = Message.makeBroadcastMessage("virtual", "hello");
+            client.enqueueMessage(msg);
+
+            String expected = msg.toString();
+            byte[] received = new byte[expected.length()];
+            InputStream in = socket.getInputStream();
+            int read = 0;
+            while (read < received.length) {
+                int count = in.read(received, read, received.length - read);
+                assertTrue(count > 0);
+                read += count;
+            }
+            assertEquals(expected, new String(received));
+        }
+    }
+
+    @Test
+    void testClosedClientIsTerminated() throws Exception {
+        ClientRunnable client;
+        try (Socket socket = new Socket("localhost", port)) {
+            client = new ClientRunnable(serverSocket.accept(), true);
+            threads.serve(client);
+            assertFalse(client.isClosed());
+        }
+        waitUntilClosed(client);
+        assertTrue(client.isClosed());
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (threads.getSessionCount() != 0 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, threads.getSessionCount());
+    }
+
+    @Test
+    void testThreadPerTaskExecutor() throws Exception {
+        ExecutorService executor = ConnectionThreads.newThreadPerTaskExecutor();
+        try {
+            Thread[] ran = new Thread[2];
+            executor.submit(() -> ran[0] = Thread.currentThread()).get();
+            executor.submit(() -> ran[1] = Thread.currentThread()).get();
+            assertNotNull(ran[0]);
+            assertNotNull(ran[1]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testServerMode() {
+        assertEquals(ServerMode.VIRTUAL, ServerMode.fromProperty("virtual"));
+    }
+}
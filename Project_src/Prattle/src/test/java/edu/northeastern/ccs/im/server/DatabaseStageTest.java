@@ -0,0 +1,73 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the stage running database work off the connection threads
+ */
+class DatabaseStageTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    private final DatabaseStage stage = new DatabaseStage(pool);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void testLaneKeepsOrder() throws InterruptedException {
+        DatabaseStage.Lane lane = stage.newLane();
+        List<Integer> ran = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            lane.execute(() -> ran.add(task));
+        }
+        lane.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100, ran.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) ran.get(i));
+        }
+    }
+
+    @Test
+    void testSlowLaneDoesNotBlockOthers() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherRan = new CountDownLatch(1);
+        DatabaseStage.Lane slow = stage.newLane();
+        slow.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stage.newLane().execute(otherRan::countDown);
+        assertTrue(otherRan.await(2, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void testFailureDoesNotStopLane() throws InterruptedException {
+        DatabaseStage.Lane lane = stage.newLane();
+        CountDownLatch done = new CountDownLatch(1);
+        lane.execute(() -> {
+            throw new IllegalStateException("query failed");
+        });
+        lane.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,213 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.northeastern.ccs.im.server.MessageDB.PendingMessage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the write-behind queue storing chat messages in batches
+ */
+class MessageWriterTest {
+
+    /* Batches handed to the sink, in order. */
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    private MessageWriter writer;
+
+    private static PendingMessage message(String text) {
+        return new PendingMessage("from", "to", text, false, false, "", "");
+    }
+
+    private void record(List<PendingMessage> batch) {
+        List<String> texts = new ArrayList<>();
+        for (PendingMessage msg : batch) {
+            texts.add(msg.text);
+        }
+        batches.add(texts);
+    }
+
+    private int storedCount() {
+        synchronized (batches) {
+            int count = 0;
+            for (List<String> batch : batches) {
+                count += batch.size();
+            }
+            return count;
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Test
+    void testFullBatchIsWrittenAtOnce() {
+        CountDownLatch hold = new CountDownLatch(1);
+        writer = new MessageWriter(batch -> {
+            try {
+                hold.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            record(batch);
+        }, 3, 10000, 100);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(writer.store(message("m" + i)));
+        }
+        hold.countDown();
+        writer.flush();
+        assertEquals(7, storedCount());
+        for (List<String> batch : batches) {
+            assertTrue(batch.size() <= 3);
+        }
+        assertEquals("m0", batches.get(0).get(0));
+    }
+
+    @Test
+    void testPartialBatchIsWrittenAfterDelay() throws InterruptedException {
+        writer = new MessageWriter(this::record, 100, 20, 100);
+        writer.store(message("a"));
+        writer.store(message("b"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (storedCount() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    void testFlushWaitsForQueuedMessages() {
+        writer = new MessageWriter(this::record, 100, 10000, 100);
+        writer.store(message("a"));
+        writer.flush();
+        // Flushing must not wait for the long delay to pass.
+        assertEquals(1, storedCount());
+    }
+
+    @Test
+    void testCloseDrainsQueue() {
+        writer = new MessageWriter(this::record, 2, 10000, 100);
+        for (int i = 0; i < 5; i++) {
+            writer.store(message("m" + i));
+        }
+        writer.close();
+        assertEquals(5, storedCount());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    void testClosedWriterStoresOnCaller() {
+        writer = new MessageWriter(this::record, 10, 10, 10);
+        writer.close();
+        assertTrue(writer.store(message("late")));
+        assertEquals(1, storedCount());
+    }
+
+    @Test
+    void testFullQueueStoresOnCaller() throws InterruptedException {
+        CountDownLatch hold = new CountDownLatch(1);
+        List<Thread> writers = Collections.synchronizedList(new ArrayList<>());
+        writer = new MessageWriter(batch -> {
+            writers.add(Thread.currentThread());
+            if (Thread.currentThread().getName().equals("prattle-message-writer")) {
+                try {
+                    hold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            record(batch);
+        }, 1, 0, 1);
+        writer.store(message("first"));
+        // Wait for the writer thread to take the first message and block on it.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (writers.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.store(message("queued"));
+        writer.store(message("overflow"));
+        assertTrue(writers.contains(Thread.currentThread()));
+        assertEquals(Collections.singletonList("overflow"), batches.get(0));
+        hold.countDown();
+        writer.flush();
+        assertEquals(3, storedCount());
+    }
+
+    @Test
+    void testFullQueueWaitsForRoom() throws InterruptedException {
+        CountDownLatch hold = new CountDownLatch(1);
+        List<Thread> writers = Collections.synchronizedList(new ArrayList<>());
+        writer = new MessageWriter(batch -> {
+            writers.add(Thread.currentThread());
+            try {
+                hold.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            record(batch);
+        }, 1, 0, 1);
+        writer.store(message("first"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (writers.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        writer.store(message("queued"));
+        // The writer frees the queue right after it is let go, well within the wait.
+        hold.countDown();
+        writer.store(message("next"));
+        writer.flush();
+        assertFalse(writers.contains(Thread.currentThread()));
+        assertEquals(3, storedCount());
+        assertEquals(Collections.singletonList("next"), batches.get(2));
+    }
+
+    @Test
+    void testFailedBatchIsReported() {
+        writer = new MessageWriter(batch -> {
+            throw new SQLException("down");
+        }, 10, 10, 10);
+        writer.close();
+        assertFalse(writer.store(message("lost")));
+    }
+
+    @Test
+    void testBadMessageOnlyLosesItself() {
+        writer = new MessageWriter(batch -> {
+            for (PendingMessage msg : batch) {
+                if (msg.text.equals("bad")) {
+                    throw new SQLException("constraint");
+                }
+            }
+            record(batch);
+        }, 10, 10000, 100);
+        writer.store(message("a"));
+        writer.store(message("bad"));
+        writer.store(message("b"));
+        writer.close();
+        assertEquals(2, storedCount());
+        assertEquals(Collections.singletonList("a"), batches.get(0));
+        assertEquals(Collections.singletonList("b"), batches.get(1));
+    }
+
+    @Test
+    void testDurabilityFromProperty() {
+        assertEquals(MessageWriter.Durability.SYNC, MessageWriter.Durability.fromProperty("sync"));
+        assertEquals(MessageWriter.Durability.ASYNC, MessageWriter.Durability.fromProperty(" ASYNC "));
+        assertEquals(MessageWriter.Durability.ASYNC, MessageWriter.Durability.fromProperty(null));
+        assertEquals(MessageWriter.Durability.ASYNC, MessageWriter.Durability.fromProperty("fast"));
+    }
+}
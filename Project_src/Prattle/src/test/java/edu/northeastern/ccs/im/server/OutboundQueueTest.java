@@ -0,0 +1,93 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the bounded per client outbound queue
+ */
+class OutboundQueueTest {
+
+    private static Message msg(int i) {
+        return Message.makeBroadcastMessage("sender", "message " + i);
+    }
+
+    @Test
+    void testDropOldest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.Policy.DROP_OLDEST);
+        long before = OutboundQueue.getDropCount(OutboundQueue.Policy.DROP_OLDEST);
+        assertTrue(queue.offer(msg(1)));
+        assertTrue(queue.offer(msg(2)));
+        assertTrue(queue.offer(msg(3)));
+        assertEquals(2, queue.size());
+        assertEquals("message 2", queue.poll().getText());
+        assertEquals("message 3", queue.poll().getText());
+        assertNull(queue.poll());
+        assertFalse(queue.isOverflowed());
+        assertEquals(before + 1, OutboundQueue.getDropCount(OutboundQueue.Policy.DROP_OLDEST));
+    }
+
+    @Test
+    void testDisconnect() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.Policy.DISCONNECT);
+        long before = OutboundQueue.getDropCount(OutboundQueue.Policy.DISCONNECT);
+        assertTrue(queue.offer(msg(1)));
+        assertFalse(queue.isOverflowed());
+        assertFalse(queue.offer(msg(2)));
+        assertTrue(queue.isOverflowed());
+        assertEquals(1, queue.size());
+        assertEquals(before + 1, OutboundQueue.getDropCount(OutboundQueue.Policy.DISCONNECT));
+    }
+
+    @Test
+    void testSpill() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.Policy.SPILL);
+        long before = OutboundQueue.getDropCount(OutboundQueue.Policy.SPILL);
+        assertFalse(queue.endSpill());
+        assertTrue(queue.offer(msg(1)));
+        assertFalse(queue.offer(msg(2)));
+        // The spill cannot end until the client has caught up.
+        assertFalse(queue.endSpill());
+        assertEquals("message 1", queue.poll().getText());
+        // Once spilling, later messages are left to the database too, to keep them in order.
+        assertFalse(queue.offer(msg(3)));
+        assertTrue(queue.endSpill());
+        assertFalse(queue.endSpill());
+        assertTrue(queue.offer(msg(4)));
+        assertFalse(queue.isOverflowed());
+        assertEquals(before + 2, OutboundQueue.getDropCount(OutboundQueue.Policy.SPILL));
+    }
+
+    @Test
+    void testOfferIfRoomNeverDrops() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.Policy.DROP_OLDEST);
+        long before = OutboundQueue.getDropCount(OutboundQueue.Policy.DROP_OLDEST);
+        assertTrue(queue.offerIfRoom(msg(1)));
+        assertFalse(queue.offerIfRoom(msg(2)));
+        assertEquals("message 1", queue.poll().getText());
+        assertEquals(before, OutboundQueue.getDropCount(OutboundQueue.Policy.DROP_OLDEST));
+    }
+
+    @Test
+    void testOfferIfRoomWaitsForSpill() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.Policy.SPILL);
+        assertTrue(queue.offer(msg(1)));
+        assertFalse(queue.offer(msg(2)));
+        queue.poll();
+        // Stored messages wait for the spill to end, like the live ones.
+        assertFalse(queue.offerIfRoom(msg(3)));
+        assertTrue(queue.endSpill());
+        assertTrue(queue.offerIfRoom(msg(3)));
+    }
+
+    @Test
+    void testPolicyFromProperty() {
+        assertEquals(OutboundQueue.Policy.DROP_OLDEST, OutboundQueue.Policy.fromProperty(null));
+        assertEquals(OutboundQueue.Policy.DROP_OLDEST, OutboundQueue.Policy.fromProperty("drop-oldest"));
+        assertEquals(OutboundQueue.Policy.DISCONNECT, OutboundQueue.Policy.fromProperty("Disconnect"));
+        assertEquals(OutboundQueue.Policy.SPILL, OutboundQueue.Policy.fromProperty("spill"));
+        assertEquals(OutboundQueue.Policy.DROP_OLDEST, OutboundQueue.Policy.fromProperty("bogus"));
+    }
+}
@@ -0,0 +1,131 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for sharding clients over several reactors
+ */
+class ReactorGroupTest {
+    private static final int port = 4532;
+
+    private ServerSocketChannel serverSocket;
+    private ExecutorService workers;
+    private ReactorGroup group;
+    private List<Socket> sockets;
+
+    @BeforeEach
+    void setup() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.socket().bind(new InetSocketAddress(port));
+        workers = Executors.newFixedThreadPool(4);
+        sockets = new ArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (group != null) {
+            group.shutdown();
+        }
+        workers.shutdownNow();
+        serverSocket.close();
+    }
+
+    private ClientRunnable connect() throws IOException {
+        sockets.add(new Socket("localhost", port));
+        SocketChannel channel = serverSocket.accept();
+        return new ClientRunnable(channel);
+    }
+
+    @Test
+    void testRoundRobin() throws IOException {
+        group = new ReactorGroup(3, workers, ReactorGroup.Balance.ROUND_ROBIN);
+        group.start();
+        for (int i = 0; i < 6; i++) {
+            assertSame(group.getReactor(i % 3), group.register(connect()));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2, group.getReactor(i).getSessionCount());
+        }
+    }
+
+    @Test
+    void testLeastLoad() throws IOException {
+        group = new ReactorGroup(2, workers, ReactorGroup.Balance.LEAST_LOAD);
+        group.getReactor(0).register(connect());
+        group.getReactor(0).register(connect());
+        group.start();
+        assertSame(group.getReactor(1), group.register(connect()));
+        assertSame(group.getReactor(1), group.register(connect()));
+        assertEquals(2, group.getReactor(0).getSessionCount());
+        assertEquals(2, group.getReactor(1).getSessionCount());
+    }
+
+    @Test
+    void testClosedClientLeavesReactor() throws Exception {
+        group = new ReactorGroup(2, workers, ReactorGroup.Balance.LEAST_LOAD);
+        group.start();
+        ClientRunnable client = connect();
+        Reactor reactor = group.register(client);
+        assertEquals(1, reactor.getSessionCount());
+        sockets.remove(0).close();
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (reactor.getSessionCount() != 0 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(20);
+        }
+        assertTrue(client.isClosed());
+        assertEquals(0, reactor.getSessionCount());
+    }
+
+    @Test
+    void testDeliveryOnEveryReactor() throws IOException {
+        group = new ReactorGroup(2, workers, ReactorGroup.Balance.ROUND_ROBIN);
+        group.start();
+        for (int i = 0; i < 2; i++) {
+            ClientRunnable client = connect();
+            group.register(client);
+            Message msg = Message.makeBroadcastMessage("reactor" + i, "hello");
+            client.enqueueMessage(msg);
+
+            Socket socket = sockets.get(i);
+            socket.setSoTimeout(2000);
+            String expected = msg.toString();
+            byte[] received = new byte[expected.length()];
+            InputStream in = socket.getInputStream();
+            int read = 0;
+            while (read < received.length) {
+                int count = in.read(received, read, received.length - read);
+                assertTrue(count > 0);
+                read += count;
+            }
+            assertEquals(expected, new String(received));
+        }
+    }
+
+    @Test
+    void testBalance() {
+        assertEquals(ReactorGroup.Balance.ROUND_ROBIN, ReactorGroup.Balance.fromProperty(null));
+        assertEquals(ReactorGroup.Balance.ROUND_ROBIN, ReactorGroup.Balance.fromProperty("roundrobin"));
+        assertEquals(ReactorGroup.Balance.LEAST_LOAD, ReactorGroup.Balance.fromProperty("leastload"));
+        assertEquals(ReactorGroup.Balance.LEAST_LOAD, ReactorGroup.Balance.fromProperty("least-load"));
+        assertEquals(ReactorGroup.Balance.ROUND_ROBIN, ReactorGroup.Balance.fromProperty("bogus"));
+    }
+}
@@ -0,0 +1,185 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the event driven reactor
+ */
+class ReactorTest {
+    private static final int port = 4531;
+
+    private ServerSocketChannel serverSocket;
+    private Selector selector;
+    private ExecutorService workers;
+    private Thread loop;
+    private BlockingQueue<ClientRunnable> accepted;
+
+    @BeforeEach
+    void setup() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.configureBlocking(false);
+        serverSocket.socket().bind(new InetSocketAddress(port));
+        selector = Selector.open();
+        serverSocket.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newFixedThreadPool(4);
+        accepted = new ArrayBlockingQueue<>(10);
+        Reactor reactor = new Reactor(selector, workers);
+        reactor.setAcceptor(() -> {
+            try {
+                SocketChannel channel = serverSocket.accept();
+                if (channel != null) {
+                    ClientRunnable client = new ClientRunnable(channel);
+                    reactor.register(client);
+                    accepted.add(client);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        loop = new Thread(reactor);
+        loop.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        loop.interrupt();
+        selector.wakeup();
+        loop.join(2000);
+        workers.shutdownNow();
+        selector.close();
+        serverSocket.close();
+    }
+
+    @Test
+    void testQueuedMessageIsDeliveredWithoutPolling() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(2000);
+            ClientRunnable client = accepted.poll(2, TimeUnit.SECONDS);
+            assertNotNull(client);
+
+            Message msg = Message.makeBroadcastMessage("reactor", "hello");
+            client.enqueueMessage(msg);
+
+            String expected = msg.toString();
+            byte[] received = new byte[expected.length()];
+            InputStream in = socket.getInputStream();
+            int read = 0;
+            while (read < received.length) {
+                int count = in.read(received, read, received.length - read);
+                assertTrue(count > 0);
+                read += count;
+            }
+            assertEquals(expected, new String(received));
+        }
+    }
+
+    @Test
+    void testBackloggedOutputIsSentOnceWritable() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            ClientRunnable client = accepted.poll(2, TimeUnit.SECONDS);
+            assertNotNull(client);
+
+            char[] text = new char[100000];
+            Arrays.fill(text, 'x');
+            Message msg = Message.makeBroadcastMessage("reactor", new String(text));
+            int count = 100;
+            for (int i = 0; i < count; i++) {
+                client.enqueueMessage(msg);
+            }
+
+            // Only the reactor noticing the socket drain can get all of this out.
+            byte[] received = new byte[msg.toString().length() * count];
+            InputStream in = socket.getInputStream();
+            int read = 0;
+            while (read < received.length) {
+                int got = in.read(received, read, received.length - read);
+                assertTrue(got > 0);
+                read += got;
+            }
+            assertEquals(received.length, read);
+            // The reactor drops the written buffers just after the bytes go out.
+            long giveUp = System.currentTimeMillis() + 5000;
+            while (client.hasPendingOutput() && System.currentTimeMillis() < giveUp) {
+                Thread.sleep(20);
+            }
+            assertFalse(client.hasPendingOutput());
+        }
+    }
+
+    @Test
+    void testClosedClientIsTerminated() throws Exception {
+        ClientRunnable client;
+        try (Socket socket = new Socket("localhost", port)) {
+            client = accepted.poll(2, TimeUnit.SECONDS);
+            assertNotNull(client);
+            assertFalse(client.isClosed());
+        }
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (!client.isClosed() && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(20);
+        }
+        assertTrue(client.isClosed());
+    }
+
+    @Test
+    void testStalledReaderOverflowsItsQueue() throws Exception {
+        System.setProperty(ServerConstants.OUTBOUND_LIMIT_PROPERTY, "4");
+        System.setProperty(ServerConstants.OUTBOUND_POLICY_PROPERTY, "disconnect");
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress("localhost", port));
+            ClientRunnable client = accepted.poll(2, TimeUnit.SECONDS);
+            assertNotNull(client);
+
+            char[] text = new char[100000];
+            Arrays.fill(text, 'x');
+            Message msg = Message.makeBroadcastMessage("reactor", new String(text));
+            // The socket is never read: once it is full, messages must wait in the
+            // bounded queue instead of piling up behind the socket.
+            boolean refused = false;
+            long giveUp = System.currentTimeMillis() + 10000;
+            while (!refused && System.currentTimeMillis() < giveUp) {
+                refused = !client.enqueueMessage(msg);
+                // Let the reactor run the client between messages.
+                Thread.sleep(5);
+            }
+            assertTrue(refused);
+            giveUp = System.currentTimeMillis() + 5000;
+            while (!client.isClosed() && System.currentTimeMillis() < giveUp) {
+                Thread.sleep(20);
+            }
+            assertTrue(client.isClosed());
+        } finally {
+            System.clearProperty(ServerConstants.OUTBOUND_LIMIT_PROPERTY);
+            System.clearProperty(ServerConstants.OUTBOUND_POLICY_PROPERTY);
+        }
+    }
+
+    @Test
+    void testServerMode() {
+        assertEquals(ServerMode.SCHEDULED, ServerMode.fromProperty(null));
+        assertEquals(ServerMode.SCHEDULED, ServerMode.fromProperty("bogus"));
+        assertEquals(ServerMode.REACTOR, ServerMode.fromProperty(" Reactor "));
+    }
+}
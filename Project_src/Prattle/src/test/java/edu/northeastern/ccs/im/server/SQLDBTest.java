@@ -10,6 +10,9 @@ import java.sql.Date;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -252,6 +255,28 @@ class SQLDBTest {
         } catch(Exception e) {}
     }
 
+    @Test
+    void testQueuedMessagesStayUntilRemoved(){
+        assertTrue(sqldb.storeMessageIndividual("senderTest","receiverTest","testing inbox","","",Collections.singletonList("receiverTest")));
+        List<MessageDB.QueuedMessage> queued = new ArrayList<>();
+        int read;
+        do {
+            List<MessageDB.QueuedMessage> chunk = new ArrayList<>();
+            read = sqldb.readQueuedMessages("receiverTest", 2, chunk);
+            assertTrue(read <= 2);
+            assertEquals(read, sqldb.readQueuedMessages("receiverTest", 2, new ArrayList<>()));
+            List<Integer> ids = new ArrayList<>();
+            for (MessageDB.QueuedMessage stored : chunk) {
+                ids.add(stored.messageID);
+            }
+            sqldb.removeQueuedMessages("receiverTest", ids);
+            queued.addAll(chunk);
+        } while (read == 2);
+        assertEquals("senderTest",queued.get(queued.size() - 1).from);
+        assertEquals("testing inbox",queued.get(queued.size() - 1).text);
+        assertEquals(0, sqldb.readQueuedMessages("receiverTest", 2, queued));
+    }
+
     @Test
     void retrieveAllUsers() {
         assertTrue(sqldb.retrieveAllUsers().size()>0);
@@ -0,0 +1,96 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the name indexed session registry
+ */
+class SessionRegistryTest {
+    private static final int port = 4536;
+
+    private ServerSocketChannel serverSocket;
+    private List<SocketChannel> channels;
+
+    @BeforeEach
+    void setup() throws IOException {
+        serverSocket = ServerSocketChannel.open();
+        serverSocket.socket().bind(new InetSocketAddress(port));
+        channels = new ArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        serverSocket.close();
+    }
+
+    private ClientRunnable connect() throws IOException {
+        channels.add(SocketChannel.open(new InetSocketAddress("localhost", port)));
+        SocketChannel channel = serverSocket.accept();
+        channels.add(channel);
+        return new ClientRunnable(channel);
+    }
+
+    @Test
+    void testIndexByName() throws IOException {
+        SessionRegistry registry = new SessionRegistry();
+        ClientRunnable bob = connect();
+        ClientRunnable alice = connect();
+        ClientRunnable unnamed = connect();
+        bob.setName("bob");
+        registry.add(bob);
+        registry.add(alice);
+        registry.add(unnamed);
+        registry.rename(alice, null, "alice");
+
+        assertEquals(3, registry.all().size());
+        assertTrue(registry.named("bob").contains(bob));
+        assertTrue(registry.named("alice").contains(alice));
+        assertTrue(registry.named("carol").isEmpty());
+        assertTrue(registry.named(null).isEmpty());
+        assertEquals(2, registry.names().size());
+    }
+
+    @Test
+    void testRenameAndRemove() throws IOException {
+        SessionRegistry registry = new SessionRegistry();
+        ClientRunnable first = connect();
+        ClientRunnable second = connect();
+        first.setName("bob");
+        second.setName("bob");
+        registry.add(first);
+        registry.add(second);
+        assertEquals(2, registry.named("bob").size());
+
+        registry.rename(first, "bob", "robert");
+        assertEquals(1, registry.named("bob").size());
+        assertTrue(registry.named("robert").contains(first));
+
+        assertTrue(registry.remove(second));
+        assertFalse(registry.remove(second));
+        assertTrue(registry.named("bob").isEmpty());
+        assertFalse(registry.names().contains("bob"));
+    }
+
+    @Test
+    void testUnregisteredClientIsNotIndexed() throws IOException {
+        SessionRegistry registry = new SessionRegistry();
+        ClientRunnable client = connect();
+        registry.rename(client, null, "bob");
+        assertTrue(registry.named("bob").isEmpty());
+        assertTrue(registry.all().isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the hashed timing wheel driving session deadlines
+ */
+class TimingWheelTest {
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /* Time of the wheel's clock, moved by hand. */
+    private long now = 1000;
+
+    private final TimingWheel wheel = new TimingWheel(() -> now, TICK, 8);
+
+    private final List<String> fired = new ArrayList<>();
+
+    private void advanceBy(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+        wheel.advance();
+    }
+
+    @Test
+    void testFiresOnceDue() {
+        wheel.schedule(() -> fired.add("a"), 250, TimeUnit.MILLISECONDS);
+        advanceBy(200);
+        assertTrue(fired.isEmpty());
+        advanceBy(100);
+        assertEquals(1, fired.size());
+        advanceBy(1000);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    void testSeveralTurns() {
+        // 8 slots of 100ms make a turn of 800ms.
+        wheel.schedule(() -> fired.add("late"), 2000, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> fired.add("early"), 400, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 19; i++) {
+            advanceBy(100);
+        }
+        assertEquals(1, fired.size());
+        assertEquals("early", fired.get(0));
+        advanceBy(100);
+        assertEquals(2, fired.size());
+        assertEquals("late", fired.get(1));
+    }
+
+    @Test
+    void testLongPauseFiresEverythingDue() {
+        wheel.schedule(() -> fired.add("a"), 300, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> fired.add("b"), 5000, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> fired.add("c"), 9000, TimeUnit.MILLISECONDS);
+        now += TimeUnit.MILLISECONDS.toNanos(6000);
+        assertEquals(2, wheel.advance());
+        assertEquals(2, fired.size());
+    }
+
+    @Test
+    void testCancel() {
+        TimingWheel.Timeout a = wheel.schedule(() -> fired.add("a"), 100, TimeUnit.MILLISECONDS);
+        TimingWheel.Timeout b = wheel.schedule(() -> fired.add("b"), 100, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> fired.add("c"), 100, TimeUnit.MILLISECONDS);
+        assertTrue(b.cancel());
+        assertFalse(b.cancel());
+        advanceBy(100);
+        assertEquals(2, fired.size());
+        assertFalse(fired.contains("b"));
+        assertFalse(a.cancel());
+    }
+
+    @Test
+    void testTaskMayReschedule() {
+        wheel.schedule(new Runnable() {
+            private int runs;
+
+            @Override
+            public void run() {
+                fired.add("run " + runs);
+                if (++runs < 3) {
+                    wheel.schedule(this, 100, TimeUnit.MILLISECONDS);
+                }
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            advanceBy(100);
+        }
+        assertEquals(3, fired.size());
+        assertEquals("run 2", fired.get(2));
+    }
+
+    @Test
+    void testSlotCountMustBePowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(() -> now, TICK, 6));
+    }
+}
@@ -0,0 +1,83 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the cache of user ids and usernames
+ */
+class UserIdentityCacheTest {
+
+    @Test
+    void testLookupBothWays() {
+        UserIdentityCache cache = new UserIdentityCache(10);
+        assertEquals(UserIdentityCache.NO_ID, cache.getId("alice"));
+        assertNull(cache.getName(7));
+        cache.put(7, "alice", cache.generation());
+        assertEquals(7, cache.getId("alice"));
+        assertEquals("alice", cache.getName(7));
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsEvicted() {
+        UserIdentityCache cache = new UserIdentityCache(2);
+        cache.put(1, "a", cache.generation());
+        cache.put(2, "b", cache.generation());
+        assertEquals(1, cache.getId("a"));
+        cache.put(3, "c", cache.generation());
+        assertEquals(2, cache.size());
+        assertNull(cache.getName(2));
+        assertEquals("a", cache.getName(1));
+        assertEquals("c", cache.getName(3));
+    }
+
+    @Test
+    void testInvalidate() {
+        UserIdentityCache cache = new UserIdentityCache(10);
+        cache.put(1, "a", cache.generation());
+        cache.put(2, "b", cache.generation());
+        cache.invalidate(UserIdentityCache.NO_ID, "a");
+        assertNull(cache.getName(1));
+        cache.invalidate(2, null);
+        assertEquals(UserIdentityCache.NO_ID, cache.getId("b"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testStaleLoadIsNotCached() {
+        UserIdentityCache cache = new UserIdentityCache(10);
+        long stamp = cache.generation();
+        // The user is deleted while its id is being read.
+        cache.invalidate(UserIdentityCache.NO_ID, "a");
+        cache.put(1, "a", stamp);
+        assertEquals(UserIdentityCache.NO_ID, cache.getId("a"));
+    }
+
+    @Test
+    void testReusedIdReplacesOldName() {
+        UserIdentityCache cache = new UserIdentityCache(10);
+        cache.put(1, "a", cache.generation());
+        cache.put(1, "b", cache.generation());
+        assertEquals("b", cache.getName(1));
+        assertEquals(UserIdentityCache.NO_ID, cache.getId("a"));
+    }
+
+    @Test
+    void testManyIdsSurviveRemovals() {
+        UserIdentityCache cache = new UserIdentityCache(64);
+        for (int id = 0; id < 64; id++) {
+            cache.put(id * 64, "u" + id, cache.generation());
+        }
+        for (int id = 0; id < 64; id += 2) {
+            cache.invalidate(id * 64, null);
+        }
+        for (int id = 0; id < 64; id++) {
+            if (id % 2 == 0) {
+                assertNull(cache.getName(id * 64));
+            } else {
+                assertEquals("u" + id, cache.getName(id * 64));
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * tests for the profiles of signed-in users
+ */
+class UserProfilesTest {
+
+    private final UserProfiles profiles = new UserProfiles();
+
+    private static UserProfile user(int role) {
+        return new UserProfile(7, role, 0, "/127.0.0.1");
+    }
+
+    @Test
+    void testChangeReachesSession() {
+        UserProfiles.Handle handle = profiles.open("alice", user(UserProfile.ROLE_USER));
+        assertFalse(handle.get().isAdmin());
+        profiles.update("alice", profile -> profile.withRole(UserProfile.ROLE_ADMIN));
+        assertTrue(handle.get().isAdmin());
+        profiles.update("alice", profile -> profile.withControl(1));
+        assertTrue(handle.get().isControlled());
+        assertTrue(handle.get().isAdmin());
+        assertEquals(7, profiles.get("alice").getUserId());
+    }
+
+    @Test
+    void testUsersWithoutSessionAreIgnored() {
+        profiles.update("bob", profile -> profile.withRole(UserProfile.ROLE_ADMIN));
+        assertNull(profiles.get("bob"));
+        assertEquals(0, profiles.size());
+    }
+
+    @Test
+    void testSessionsShareProfileUntilLastCloses() {
+        UserProfiles.Handle first = profiles.open("alice", user(UserProfile.ROLE_USER));
+        UserProfiles.Handle second = profiles.open("alice", user(UserProfile.ROLE_AGENCY));
+        assertSame(first, second);
+        assertEquals(UserProfile.ROLE_AGENCY, first.get().getRole());
+        profiles.close("alice");
+        assertNotNull(profiles.get("alice"));
+        profiles.close("alice");
+        assertNull(profiles.get("alice"));
+        profiles.close("alice");
+        assertEquals(0, profiles.size());
+    }
+}